@@ -0,0 +1,441 @@
+package gui;
+
+import java.awt.print.PrinterException;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+// Headless batch entry point: reads label specs and prints or exports them without Swing
+public class BarcodeLabelCli {
+
+    private static final String USAGE
+            = "Usage: java -jar BarcodeTest.jar --paper <paper type> --output <target> [options]\n"
+            + "       java -jar BarcodeTest.jar --build-catalog <export file> --catalog <index file>\n"
+            + "       java -jar BarcodeTest.jar --journal <file> --resume <job id> [--pages <first>[-<last>]]\n"
+            + "                                 --output printer[:<name>]\n"
+            + "  --paper <name>       one of the paper types listed below\n"
+            + "  --output <target>    printer[:<name>] | pdf:<file> | png:<dir> | tiff:<file> | zpl:<file>\n"
+            + "                       (\"-\" as the file writes to stdout)\n"
+            + "  --shard <printer>    splits the job across printers, given once per printer instead\n"
+            + "                       of --output: a printer name, or a stand-in printer writing PNG\n"
+            + "                       pages: file:<dir>[?speed=<pages per second>&jam=<pages>]\n"
+            + "  --dpi <dots>         resolution of png and tiff pages (default: 300)\n"
+            + "  --pipeline <encode threads>:<compose threads>[:<queue size>]\n"
+            + "                       png and tiff: parse, encode, render and write on separate\n"
+            + "                       threads, e.g. 2:4, and report the time spent in each stage\n"
+            + "  --template <file>    label layout for printer, pdf, png and tiff output\n"
+            + "  --verify <fail|warn> scans every distinct barcode back at --dpi before printing and\n"
+            + "                       stops the job, or only reports, when one does not read back\n"
+            + "  --input <file>       label specs, one per line (default: stdin)\n"
+            + "  --business <name>    business name printed on every label\n"
+            + "  --catalog <file>     product index filling in missing product names and prices\n"
+            + "  --build-catalog <export>\n"
+            + "                       builds the --catalog index from a barcode<TAB>name<TAB>price\n"
+            + "                       export and exits\n"
+            + "  --catalog-input      input lines are catalog export lines (barcode<TAB>name<TAB>price)\n"
+            + "  --delta <file>       print only labels whose product name, price or paper type changed\n"
+            + "                       since the last run recorded in this history file\n"
+            + "  --journal <file>     records printer jobs and the pages handed to the printer\n"
+            + "  --resume <job id>    prints a journaled job from its first unconfirmed page\n"
+            + "  --pages <range>      with --resume: reprints these pages instead, e.g. 140-152\n"
+            + "  --no-business --no-product --no-price --no-date\n"
+            + "Label spec: barcode[<TAB>quantity[<TAB>product name[<TAB>price]]], '#' starts a comment\n"
+            + "Fields may use {serial[:width[:start[:step]]]} and {date[+N(d|w|m|y)][:pattern]},\n"
+            + "e.g. 0195012345678903{serial:8}<TAB>1000<TAB>Milk<TAB>EXP {date+18m:yyyy-MM}\n";
+
+    private String paperName;
+    private String outputTarget;
+    private String inputPath = "-";
+    private int dpi = 300;
+    private String catalogPath;
+    private String catalogExportPath;
+    private String historyPath;
+    private String journalPath;
+    private final List<String> shardPrinters = new ArrayList<>();
+    private LabelPipeline pipeline;
+    private String templatePath;
+    private String verifyMode;
+    private String resumeJobId;
+    private int firstPage = -1; // 0-based page range of --pages
+    private int lastPage = -1;
+    private final LabelSpecParser specParser = new LabelSpecParser();
+
+    public static void main(String[] args) {
+        // Must be set before the first AWT class is loaded
+        if (System.getProperty("java.awt.headless") == null) {
+            System.setProperty("java.awt.headless", "true");
+        }
+        System.exit(new BarcodeLabelCli().run(args));
+    }
+
+    int run(String[] args) {
+        try {
+            parseArguments(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(usage());
+            return 2;
+        }
+
+        if (catalogExportPath != null) {
+            return buildCatalog();
+        }
+        if (resumeJobId != null) {
+            return resumeJob();
+        }
+
+        PaperConfig config = PaperConfig.find(paperName);
+        if (config == null) {
+            System.err.println("Invalid paper type: " + paperName);
+            System.err.print(usage());
+            return 2;
+        }
+
+        JobJournal journal = null;
+        try {
+            LabelOutput output = shardPrinters.isEmpty() ? LabelOutput.forTarget(outputTarget, dpi)
+                    : createDispatcher();
+            applyTemplate(output);
+            output.template.check(config);
+            if (journalPath != null) {
+                journal = JobJournal.open(Paths.get(journalPath));
+                printerOutput(output).journal = journal;
+            }
+            if (catalogPath != null) {
+                specParser.catalog = ProductIndex.open(Paths.get(catalogPath));
+            }
+            PrintHistory history = null;
+            if (historyPath != null) {
+                history = PrintHistory.open(Paths.get(historyPath));
+                specParser.history = history;
+                specParser.paper = config;
+            }
+            if (pipeline != null) {
+                return runPipeline(config, output, history);
+            }
+            LabelBatch labels = readLabels();
+            if (history != null) {
+                System.err.println("Delta: " + history.pendingCount() + " changed, "
+                        + specParser.unchangedCount + " unchanged label spec(s)");
+                if (labels.size() == 0) {
+                    return 0;
+                }
+            }
+            if (labels.size() == 0) {
+                System.err.println("No labels to print");
+                return 1;
+            }
+            if (verifyMode != null && !verifyBarcodes(config, labels, output)) {
+                return 1;
+            }
+            output.write(config, labels);
+            // Only labels that were actually printed count as printed next time
+            if (history != null) {
+                history.commit();
+            }
+            System.err.println("Printed " + labels.size() + " barcode label(s) on "
+                    + config.pageCount(labels.size()) + " page(s)");
+            return 0;
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return 2;
+        } catch (Exception e) {
+            System.err.println("Printing failed: " + e.getMessage());
+            return 1;
+        } finally {
+            closeJournal(journal);
+        }
+    }
+
+    private int runPipeline(PaperConfig config, LabelOutput output, PrintHistory history)
+            throws IOException, PrinterException {
+        if (!(output instanceof LabelOutput.RasterOutput)) {
+            throw new IllegalArgumentException("--pipeline needs a png or tiff output");
+        }
+        long labelCount;
+        try (BufferedReader reader = openInput(inputPath)) {
+            labelCount = pipeline.run(specParser, reader, config, (LabelOutput.RasterOutput) output);
+        }
+        System.err.println(pipeline.summary());
+        if (history != null) {
+            System.err.println("Delta: " + history.pendingCount() + " changed, "
+                    + specParser.unchangedCount + " unchanged label spec(s)");
+            history.commit();
+        } else if (labelCount == 0) {
+            System.err.println("No labels to print");
+            return 1;
+        }
+        System.err.println("Printed " + labelCount + " barcode label(s) on " + pipeline.pageCount() + " page(s)");
+        return 0;
+    }
+
+    private PrintDispatcher createDispatcher() throws PrinterException {
+        List<PrintDispatcher.Printer> printers = new ArrayList<>();
+        for (String printer : shardPrinters) {
+            if (printer.startsWith("file:")) {
+                printers.add(PrintDispatcher.FilePrinter.parse(printer, dpi));
+            } else {
+                printers.add(new PrintDispatcher.ServicePrinter(LabelOutput.PrinterOutput.findService(printer)));
+            }
+        }
+        return new PrintDispatcher(printers);
+    }
+
+    // Prints the rest of a journaled job, or the pages given with --pages
+    private int resumeJob() {
+        JobJournal journal = null;
+        try {
+            LabelOutput.PrinterOutput output = printerOutput(LabelOutput.forTarget(outputTarget, dpi));
+            applyTemplate(output);
+            journal = JobJournal.open(Paths.get(journalPath));
+            JobJournal.Job job = journal.load(resumeJobId);
+            output.template.check(job.config);
+
+            int first = firstPage >= 0 ? firstPage : job.resumePage();
+            int end = firstPage >= 0 ? Math.min(lastPage + 1, job.pageCount()) : job.pageCount();
+            if (first >= end) {
+                System.err.println("Job " + job.id + " has no pages left to print ("
+                        + job.confirmedPages() + " of " + job.pageCount() + " confirmed)");
+                return firstPage >= 0 ? 2 : 0;
+            }
+            output.journal = journal;
+            output.print(job, first, end);
+            System.err.println("Printed pages " + (first + 1) + "-" + end + " of job " + job.id);
+            return 0;
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return 2;
+        } catch (Exception e) {
+            System.err.println("Printing failed: " + e.getMessage());
+            return 1;
+        } finally {
+            closeJournal(journal);
+        }
+    }
+
+    // False when a barcode does not read back and --verify fail stops the job
+    private boolean verifyBarcodes(PaperConfig config, LabelBatch labels, LabelOutput output)
+            throws InterruptedException {
+        if (output instanceof LabelOutput.ZplOutput) {
+            throw new IllegalArgumentException("--verify checks drawn barcodes; zpl barcodes are drawn by the printer");
+        }
+        BarcodeVerifier verifier = new BarcodeVerifier(Runtime.getRuntime().availableProcessors(), dpi);
+        BarcodeVerifier.Report report = verifier.verify(config, labels, output.template);
+        System.err.println(report.summary(20));
+        if (!report.passed() && verifyMode.equals("fail")) {
+            System.err.println("Job stopped before printing: unreadable barcodes");
+            return false;
+        }
+        return true;
+    }
+
+    private void applyTemplate(LabelOutput output) throws IOException {
+        if (templatePath != null) {
+            output.template = LabelTemplate.load(Paths.get(templatePath));
+        }
+    }
+
+    private static LabelOutput.PrinterOutput printerOutput(LabelOutput output) {
+        if (!(output instanceof LabelOutput.PrinterOutput)) {
+            throw new IllegalArgumentException("--journal and --resume need a printer output");
+        }
+        return (LabelOutput.PrinterOutput) output;
+    }
+
+    private static void closeJournal(JobJournal journal) {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            System.err.println("Closing the job journal failed: " + e.getMessage());
+        }
+    }
+
+    private void parseArguments(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--paper":
+                    paperName = value(args, ++i);
+                    break;
+                case "--output":
+                    outputTarget = value(args, ++i);
+                    break;
+                case "--shard":
+                    shardPrinters.add(value(args, ++i));
+                    break;
+                case "--pipeline":
+                    pipeline = parsePipeline(args, ++i);
+                    break;
+                case "--template":
+                    templatePath = value(args, ++i);
+                    break;
+                case "--verify":
+                    verifyMode = value(args, ++i);
+                    if (!verifyMode.equals("fail") && !verifyMode.equals("warn")) {
+                        throw new IllegalArgumentException("Invalid value for --verify: " + verifyMode);
+                    }
+                    break;
+                case "--input":
+                    inputPath = value(args, ++i);
+                    break;
+                case "--dpi":
+                    dpi = positiveInt(args, ++i);
+                    break;
+                case "--business":
+                    specParser.businessName = value(args, ++i);
+                    break;
+                case "--catalog":
+                    catalogPath = value(args, ++i);
+                    break;
+                case "--build-catalog":
+                    catalogExportPath = value(args, ++i);
+                    break;
+                case "--catalog-input":
+                    specParser.catalogFormat = true;
+                    break;
+                case "--delta":
+                    historyPath = value(args, ++i);
+                    break;
+                case "--journal":
+                    journalPath = value(args, ++i);
+                    break;
+                case "--resume":
+                    resumeJobId = value(args, ++i);
+                    break;
+                case "--pages":
+                    parsePageRange(args, ++i);
+                    break;
+                case "--no-business":
+                    specParser.includeBusinessName = false;
+                    break;
+                case "--no-product":
+                    specParser.includeProductName = false;
+                    break;
+                case "--no-price":
+                    specParser.includePrice = false;
+                    break;
+                case "--no-date":
+                    specParser.includePrintedDate = false;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        if (catalogExportPath != null) {
+            if (catalogPath == null) {
+                throw new IllegalArgumentException("--build-catalog requires --catalog");
+            }
+            return;
+        }
+        if (resumeJobId != null) {
+            if (journalPath == null || outputTarget == null) {
+                throw new IllegalArgumentException("--resume requires --journal and --output");
+            }
+            return;
+        }
+        if (firstPage >= 0) {
+            throw new IllegalArgumentException("--pages requires --resume");
+        }
+        if (!shardPrinters.isEmpty()) {
+            if (outputTarget != null || journalPath != null) {
+                throw new IllegalArgumentException("--shard cannot be combined with --output or --journal");
+            }
+        }
+        if (verifyMode != null && pipeline != null) {
+            throw new IllegalArgumentException("--verify cannot be combined with --pipeline");
+        }
+        if (paperName == null || (outputTarget == null && shardPrinters.isEmpty())) {
+            throw new IllegalArgumentException("--paper and --output are required");
+        }
+    }
+
+    private static String value(String[] args, int index) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + args[index - 1]);
+        }
+        return args[index];
+    }
+
+    // "<encode threads>:<compose threads>[:<queue size>]"
+    private static LabelPipeline parsePipeline(String[] args, int index) {
+        String text = value(args, index);
+        String[] parts = text.split(":");
+        try {
+            if (parts.length == 2 || parts.length == 3) {
+                return new LabelPipeline(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]),
+                        parts.length == 3 ? Integer.parseInt(parts[2]) : LabelPipeline.DEFAULT_QUEUE_CAPACITY);
+            }
+        } catch (IllegalArgumentException e) {
+            // reported below; also covers NumberFormatException
+        }
+        throw new IllegalArgumentException("Invalid value for " + args[index - 1] + ": " + text);
+    }
+
+    // "<first>[-<last>]", 1-based and inclusive
+    private void parsePageRange(String[] args, int index) {
+        String text = value(args, index);
+        int dash = text.indexOf('-');
+        try {
+            firstPage = Integer.parseInt(dash < 0 ? text : text.substring(0, dash)) - 1;
+            lastPage = dash < 0 ? firstPage : Integer.parseInt(text.substring(dash + 1)) - 1;
+        } catch (NumberFormatException e) {
+            firstPage = -1;
+        }
+        if (firstPage < 0 || lastPage < firstPage) {
+            throw new IllegalArgumentException("Invalid value for " + args[index - 1] + ": " + text);
+        }
+    }
+
+    private static int positiveInt(String[] args, int index) {
+        String text = value(args, index);
+        try {
+            int number = Integer.parseInt(text);
+            if (number > 0) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Invalid value for " + args[index - 1] + ": " + text);
+    }
+
+    private int buildCatalog() {
+        try (BufferedReader reader = openInput(catalogExportPath)) {
+            int products = ProductIndex.build(reader, Paths.get(catalogPath));
+            System.err.println("Indexed " + products + " product(s) into " + catalogPath);
+            return 0;
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return 2;
+        } catch (IOException e) {
+            System.err.println("Building the catalog failed: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    private LabelBatch readLabels() throws IOException {
+        try (BufferedReader reader = openInput(inputPath)) {
+            return specParser.read(reader);
+        }
+    }
+
+    private static BufferedReader openInput(String path) throws IOException {
+        if (path.equals("-")) {
+            return new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        }
+        return Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8);
+    }
+
+    private static String usage() {
+        StringBuilder usage = new StringBuilder(USAGE).append("Paper types:\n");
+        for (PaperConfig config : PaperConfig.STANDARD) {
+            usage.append("  ").append(config.name).append('\n');
+        }
+        return usage.toString();
+    }
+}
@@ -0,0 +1,324 @@
+package gui;
+
+import java.awt.*;
+import java.awt.print.*;
+import java.util.Arrays;
+
+// Printable content for one page of a label batch
+class BarcodePrintable implements Printable {
+
+    private PaperConfig config;
+    private LabelBatch labels;
+    private int startLabel;
+    private int endLabel;
+    private RenderStats stats;
+    private TextLayoutCache textCache;
+    private LabelTemplate.Program template;
+    private int bandCount;
+
+    // Content of the label being drawn, reused for every label on the page, unless encode()
+    // prepared the content of all labels up front
+    private final EncodedLabel current = new EncodedLabel();
+    private final Code128Encoder encoder = new Code128Encoder();
+    private EncodedLabel[] encoded;
+
+    // Run of the label last resolved
+    private int run = -1;
+    private int runStart;
+    private int runEnd;
+
+    public BarcodePrintable(PaperConfig config, LabelBatch labels, int startLabel, int endLabel,
+            RenderStats stats, TextLayoutCache textCache, LabelTemplate.Program template) {
+        this.config = config;
+        this.labels = labels;
+        this.startLabel = startLabel;
+        this.endLabel = endLabel;
+        this.stats = stats;
+        this.textCache = textCache;
+        this.template = template;
+    }
+
+    static Book createBook(PaperConfig config, LabelBatch labels) {
+        return createBook(config, labels, new RenderStats());
+    }
+
+    static Book createBook(PaperConfig config, LabelBatch labels, RenderStats stats) {
+        return createBook(config, labels, stats, new TextLayoutCache());
+    }
+
+    static Book createBook(PaperConfig config, LabelBatch labels, RenderStats stats, TextLayoutCache textCache) {
+        return createBook(config, labels, stats, textCache, LabelTemplate.DEFAULT);
+    }
+
+    static Book createBook(PaperConfig config, LabelBatch labels, RenderStats stats, TextLayoutCache textCache,
+            LabelTemplate template) {
+        return createBook(config, labels, stats, textCache, template, 0, config.pageCount(labels.size()));
+    }
+
+    // Book of the job's pages [firstPage, endPage), e.g. to resume or reprint part of a job
+    static Book createBook(PaperConfig config, LabelBatch labels, RenderStats stats, TextLayoutCache textCache,
+            LabelTemplate template, int firstPage, int endPage) {
+        // Create book for multiple pages; text layouts and the compiled template are shared by
+        // all pages of the job
+        Book book = new Book();
+        PageFormat pageFormat = config.createPageFormat();
+        LabelTemplate.Program program = template.compile(config, labels);
+
+        int labelsPerPage = config.labelsPerPage();
+        int totalPages = Math.min(endPage, config.pageCount(labels.size()));
+
+        // Add pages based on total labels needed
+        for (int pageIndex = Math.max(0, firstPage); pageIndex < totalPages; pageIndex++) {
+            int startLabel = pageIndex * labelsPerPage;
+            int endLabel = Math.min(startLabel + labelsPerPage, labels.size());
+            book.append(new BarcodePrintable(config, labels, startLabel, endLabel, stats, textCache, program),
+                    pageFormat);
+        }
+        return book;
+    }
+
+    int startLabel() {
+        return startLabel;
+    }
+
+    int endLabel() {
+        return endLabel;
+    }
+
+    @Override
+    public int print(Graphics graphics, PageFormat pageFormat, int pageIndex)
+            throws PrinterException {
+        Graphics2D g2d = (Graphics2D) graphics;
+        g2d.translate(pageFormat.getImageableX(), pageFormat.getImageableY());
+
+        // Set up fonts and colors
+        g2d.setColor(Color.BLACK);
+
+        // Draw the labels of this page that fall inside the current band
+        long started = System.nanoTime();
+        int drawn = drawLabelsOnPage(g2d, g2d.getClipBounds());
+
+        if (bandCount++ == 0) {
+            stats.pages.increment();
+        }
+        stats.bands.increment();
+        stats.labelsDrawn.add(drawn);
+        stats.labelsSkipped.add(endLabel - startLabel - drawn);
+        stats.renderNanos.add(System.nanoTime() - started);
+
+        return PAGE_EXISTS;
+    }
+
+    // Draws only the grid cells that intersect the clip and returns how many labels were drawn
+    private int drawLabelsOnPage(Graphics2D g2d, Rectangle clip) {
+        int labelsToDraw = endLabel - startLabel;
+        int firstRow = 0;
+        int lastRow = config.rows - 1;
+        int firstCol = 0;
+        int lastCol = config.columns - 1;
+
+        if (clip != null) {
+            // Text may spill past its cell on small labels, so allow half a cell of slack
+            double slackX = config.labelWidth / 2;
+            double slackY = config.labelHeight / 2;
+            firstCol = Math.max(firstCol, (int) Math.floor((clip.x - slackX) / config.labelWidth));
+            lastCol = Math.min(lastCol, (int) Math.floor((clip.x + clip.width + slackX) / config.labelWidth));
+            firstRow = Math.max(firstRow, (int) Math.floor((clip.y - slackY) / config.labelHeight));
+            lastRow = Math.min(lastRow, (int) Math.floor((clip.y + clip.height + slackY) / config.labelHeight));
+        }
+
+        int drawn = 0;
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int col = firstCol; col <= lastCol; col++) {
+                int labelIndex = row * config.columns + col;
+                if (labelIndex >= labelsToDraw) {
+                    return drawn;
+                }
+
+                double x = col * config.labelWidth;
+                double y = row * config.labelHeight;
+
+                EncodedLabel label = encoded != null ? encoded[labelIndex] : resolve(startLabel + labelIndex, current);
+                drawSingleLabel(g2d, label, x, y);
+                drawn++;
+            }
+        }
+        return drawn;
+    }
+
+    // Resolves the fields and barcode modules of every label on the page ahead of printing,
+    // e.g. on another thread than the one that draws the page
+    void encode() {
+        EncodedLabel[] page = new EncodedLabel[endLabel - startLabel];
+        for (int i = 0; i < page.length; i++) {
+            page[i] = resolve(startLabel + i, new EncodedLabel());
+            page[i].modules = Arrays.copyOf(page[i].modules, page[i].moduleCount);
+        }
+        encoded = page;
+    }
+
+    private EncodedLabel resolve(int batchIndex, EncodedLabel out) {
+        if (run < 0 || batchIndex < runStart || batchIndex >= runEnd) {
+            run = labels.runOf(batchIndex);
+            runStart = labels.runStart(run);
+            runEnd = labels.runEnd(run);
+        }
+        LabelData label = labels.runs().get(run);
+        long ordinal = labels.runOrdinal(run) + batchIndex - runStart;
+        out.label = label;
+        out.barcode.resolve(label.barcodeText, ordinal);
+        out.businessName.resolve(label.businessNameText, ordinal);
+        out.productName.resolve(label.productNameText, ordinal);
+        out.price.resolve(label.priceText, ordinal);
+        out.printedDate.resolve(label.printedDateText, ordinal);
+        // Re-encodes only what changed since the previous label
+        out.moduleCount = encoder.encode(out.barcode.chars, out.barcode.length);
+        out.modules = encoder.modules();
+        return out;
+    }
+
+    // Runs the compiled template for one label
+    private void drawSingleLabel(Graphics2D g2d, EncodedLabel content, double x, double y) {
+        LabelTemplate.Program program = template;
+        int labelX = (int) x + program.margin;
+        int labelY = (int) y + program.margin;
+        int currentY = labelY + program.top;
+
+        int pc = 0;
+        while (pc < program.length) {
+            int field = program.fields[pc];
+            switch (program.ops[pc]) {
+                case LabelTemplate.TEXT:
+                    currentY += drawText(g2d, program.fonts[pc], LabelTemplate.text(content.label, field),
+                            content.field(field), labelX + program.xs[pc], currentY, program.widths[pc],
+                            program.heights[pc], program.wrap[pc]) + program.gaps[pc];
+                    break;
+                case LabelTemplate.LITERAL:
+                    currentY += textCache.layout(program.fonts[pc], program.literals[pc], program.widths[pc],
+                            program.heights[pc], program.wrap[pc]).draw(g2d, labelX + program.xs[pc], currentY, program.widths[pc])
+                            + program.gaps[pc];
+                    break;
+                case LabelTemplate.BARCODE_BARS:
+                    drawCode128Barcode(g2d, content.modules, content.moduleCount, labelX + program.xs[pc], currentY,
+                            program.widths[pc], program.args[pc]);
+                    currentY += program.args[pc] + program.gaps[pc];
+                    break;
+                case LabelTemplate.MOVE:
+                    currentY = labelY + program.args[pc];
+                    break;
+                case LabelTemplate.SKIP_IF_EMPTY:
+                    if (content.field(field).isEmpty()) {
+                        pc = program.args[pc];
+                        continue;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            pc++;
+        }
+    }
+
+    // Constant text is fitted and shaped once per job; per-label text is drawn from its buffer
+    private int drawText(Graphics2D g2d, Font font, VariableText text, FieldBuffer buffer,
+            int x, int y, int width, int height, boolean wrap) {
+        if (text.isConstant()) {
+            return textCache.layout(font, text.constantText(), width, height, wrap).draw(g2d, x, y, width);
+        }
+        g2d.setFont(font);
+        drawCenteredString(g2d, buffer, x, y, width);
+        return getStringHeight(g2d);
+    }
+
+    // Also used by BarcodeVerifier, so verified barcodes are drawn exactly as printed
+    static void drawCode128Barcode(Graphics2D g2d, byte[] modules, int moduleCount, int x, int y, int width,
+            int height) {
+        int barcodeHeight = height;
+
+        // 🔹 Reduce barcode width dynamically based on label width
+        double widthRatio = width > 150 ? 0.85 : width > 100 ? 0.75 : 0.65;
+        int barcodeWidth = (int) (width * widthRatio);
+        int barcodeX = x + (width - barcodeWidth) / 2; // Centered
+
+        // 🔹 Ensure minimum module width = 1, max = 2 px
+        int moduleWidth = Math.max(1, Math.min(2, barcodeWidth / moduleCount));
+
+        // 🔹 Ensure barcode doesn’t overflow label width
+        int maxBars = barcodeWidth / moduleWidth;
+        int barsToDraw = Math.min(moduleCount, maxBars);
+
+        // Draw bars, one rectangle per run of adjacent bar modules
+        g2d.setColor(Color.BLACK);
+        int i = 0;
+        while (i < barsToDraw) {
+            if (modules[i] == 0) {
+                i++;
+                continue;
+            }
+            int barStart = i;
+            while (i < barsToDraw && modules[i] == 1) {
+                i++;
+            }
+            g2d.fillRect(barcodeX + barStart * moduleWidth, y, (i - barStart) * moduleWidth, barcodeHeight);
+        }
+    }
+
+    private void drawCenteredString(Graphics2D g2d, FieldBuffer text, int x, int y, int width) {
+        FontMetrics fm = g2d.getFontMetrics();
+        int textWidth = fm.charsWidth(text.chars, 0, text.length);
+        int textX = x + (width - textWidth) / 2;
+        g2d.drawChars(text.chars, 0, text.length, textX, y);
+    }
+
+    private int getStringHeight(Graphics2D g2d) {
+        FontMetrics fm = g2d.getFontMetrics();
+        return fm.getHeight();
+    }
+
+    // Resolved fields and barcode modules of one label
+    static class EncodedLabel {
+
+        LabelData label;
+        final FieldBuffer barcode = new FieldBuffer();
+        final FieldBuffer businessName = new FieldBuffer();
+        final FieldBuffer productName = new FieldBuffer();
+        final FieldBuffer price = new FieldBuffer();
+        final FieldBuffer printedDate = new FieldBuffer();
+        byte[] modules;
+        int moduleCount;
+
+        FieldBuffer field(int field) {
+            switch (field) {
+                case LabelTemplate.BUSINESS:
+                    return businessName;
+                case LabelTemplate.PRODUCT:
+                    return productName;
+                case LabelTemplate.PRICE:
+                    return price;
+                case LabelTemplate.BARCODE:
+                    return barcode;
+                default:
+                    return printedDate;
+            }
+        }
+    }
+
+    // Reusable text of one label field
+    static class FieldBuffer {
+
+        char[] chars = new char[32];
+        int length;
+
+        void resolve(VariableText text, long ordinal) {
+            if (chars.length < text.maxLength()) {
+                chars = new char[text.maxLength()];
+            }
+            length = text.resolve(ordinal, chars);
+        }
+
+        boolean isEmpty() {
+            return length == 0;
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package gui;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Checks that every barcode of a job scans before the job is printed: each distinct barcode
+// is drawn the way the labels draw it, rasterized at the output resolution and read back
+// along one scan line with a Code 128 decoder. Catches bars cut off on a narrow label,
+// characters that do not encode, and encoder mistakes, while there is still no paper used.
+//
+// Barcodes are checked once each, not once per label, on a pool of worker threads.
+class BarcodeVerifier {
+
+    // A wide element may be read this far (in modules, summed over a symbol) off its pattern
+    private static final double MAX_SYMBOL_ERROR = 1.5;
+    private static final int[][] ELEMENT_WIDTHS = new int[Code128Encoder.PATTERNS.length][];
+    private static final int[] STOP_WIDTHS = elementWidths(Code128Encoder.STOP_PATTERN);
+    // Symbol value by its six element widths (1-4 modules) as base 5 digits, or -1
+    private static final int[] SYMBOL_BY_WIDTHS = new int[5 * 5 * 5 * 5 * 5 * 5];
+
+    static {
+        Arrays.fill(SYMBOL_BY_WIDTHS, -1);
+        for (int i = 0; i < ELEMENT_WIDTHS.length; i++) {
+            ELEMENT_WIDTHS[i] = elementWidths(Code128Encoder.PATTERNS[i]);
+            int key = 0;
+            for (int width : ELEMENT_WIDTHS[i]) {
+                key = key * 5 + width;
+            }
+            SYMBOL_BY_WIDTHS[key] = i;
+        }
+    }
+
+    private final int threads;
+    private final int dpi;
+
+    BarcodeVerifier(int threads, int dpi) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Verification threads must be greater than 0");
+        }
+        this.threads = threads;
+        this.dpi = dpi;
+    }
+
+    // Barcode that did not read back as its payload
+    record Failure(String barcode, String problem) {
+    }
+
+    static class Report {
+
+        final int checked;
+        final List<Failure> failures;
+
+        Report(int checked, List<Failure> failures) {
+            this.checked = checked;
+            this.failures = failures;
+        }
+
+        boolean passed() {
+            return failures.isEmpty();
+        }
+
+        String summary(int maxListed) {
+            StringBuilder summary = new StringBuilder();
+            summary.append("Verified ").append(checked).append(" distinct barcode(s), ")
+                    .append(failures.size()).append(" unreadable");
+            for (int i = 0; i < Math.min(maxListed, failures.size()); i++) {
+                Failure failure = failures.get(i);
+                summary.append("\n  ").append(failure.barcode()).append(": ").append(failure.problem());
+            }
+            if (failures.size() > maxListed) {
+                summary.append("\n  ... ").append(failures.size() - maxListed).append(" more");
+            }
+            return summary.toString();
+        }
+    }
+
+    Report verify(PaperConfig config, LabelBatch labels, LabelTemplate template) throws InterruptedException {
+        LabelTemplate.Program program = template.compile(config, labels);
+        List<int[]> boxes = new ArrayList<>(); // x and width of each barcode element
+        for (int pc = 0; pc < program.length; pc++) {
+            if (program.ops[pc] == LabelTemplate.BARCODE_BARS) {
+                boxes.add(new int[]{program.margin + program.xs[pc], program.widths[pc]});
+            }
+        }
+        List<String> barcodes = distinctBarcodes(labels);
+        if (boxes.isEmpty() || barcodes.isEmpty()) {
+            return new Report(0, new ArrayList<>());
+        }
+
+        // Workers take barcodes in chunks; failures are reported in job order
+        int chunk = Math.max(1, Math.min(256, barcodes.size() / (threads * 4)));
+        AtomicInteger next = new AtomicInteger();
+        Failure[] failures = new Failure[barcodes.size()];
+        int workers = Math.min(threads, (barcodes.size() + chunk - 1) / chunk);
+        ExecutorService pool = Executors.newFixedThreadPool(workers, task -> {
+            Thread thread = new Thread(task, "label-verify");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int i = 0; i < workers; i++) {
+                tasks.add(() -> {
+                    Scanner scanner = new Scanner(config);
+                    try {
+                        int start;
+                        while ((start = next.getAndAdd(chunk)) < barcodes.size()) {
+                            for (int b = start; b < Math.min(start + chunk, barcodes.size()); b++) {
+                                for (int[] box : boxes) {
+                                    String problem = scanner.check(barcodes.get(b), box[0], box[1]);
+                                    if (problem != null) {
+                                        failures[b] = new Failure(barcodes.get(b), problem);
+                                        break;
+                                    }
+                                }
+                            }
+                        }
+                    } finally {
+                        scanner.g2d.dispose();
+                    }
+                    return null;
+                });
+            }
+            for (Future<Void> result : pool.invokeAll(tasks)) {
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Barcode verification failed", e.getCause());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        List<Failure> failed = new ArrayList<>();
+        for (Failure failure : failures) {
+            if (failure != null) {
+                failed.add(failure);
+            }
+        }
+        return new Report(barcodes.size(), failed);
+    }
+
+    // Barcodes of the job in order of first use; a run with a counter yields one per label
+    private static List<String> distinctBarcodes(LabelBatch labels) {
+        Set<String> barcodes = new LinkedHashSet<>();
+        BarcodePrintable.FieldBuffer buffer = new BarcodePrintable.FieldBuffer();
+        for (LabelData label : labels.runs()) {
+            int count = label.barcodeText.isConstant() ? 1 : label.quantity;
+            for (int ordinal = 0; ordinal < count; ordinal++) {
+                buffer.resolve(label.barcodeText, ordinal);
+                barcodes.add(new String(buffer.chars, 0, buffer.length));
+            }
+        }
+        return new ArrayList<>(barcodes);
+    }
+
+    // Draws and reads back barcodes on one thread, reusing its raster
+    private class Scanner {
+
+        private final Code128Encoder encoder = new Code128Encoder();
+        private final BufferedImage image;
+        private final Graphics2D g2d;
+        private final PaperConfig config;
+        private final int scanLine;
+        private final int[] pixels;
+        private int[] runs = new int[256];
+        private String problem; // why the last decode returned null
+
+        Scanner(PaperConfig config) {
+            this.config = config;
+            // One label wide and a few points high, enough for a scan line through the bars
+            int width = (int) Math.ceil(config.labelWidth * dpi / 72.0);
+            int height = (int) Math.ceil(4 * dpi / 72.0);
+            image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_BINARY);
+            scanLine = height / 2;
+            pixels = new int[width];
+            g2d = image.createGraphics();
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+            g2d.scale(dpi / 72.0, dpi / 72.0);
+        }
+
+        // Null when the barcode reads back as its payload, else what went wrong
+        String check(String barcode, int x, int width) {
+            int moduleCount = encoder.encode(barcode);
+            g2d.setColor(Color.WHITE);
+            g2d.fillRect(0, 0, (int) config.labelWidth + 1, 4);
+            BarcodePrintable.drawCode128Barcode(g2d, encoder.modules(), moduleCount, x, 0, width, 4);
+            String decoded = decode(scan());
+            if (decoded == null) {
+                return problem;
+            }
+            return decoded.equals(barcode) ? null : "reads as \"" + decoded + "\"";
+        }
+
+        // Widths in pixels of the bars and spaces between the first and the last bar
+        private int scan() {
+            int count = 0;
+            int run = 0;
+            boolean bar = false;
+            boolean started = false;
+            image.getRaster().getSamples(0, scanLine, pixels.length, 1, 0, pixels);
+            for (int x = 0; x < pixels.length; x++) {
+                boolean dark = pixels[x] == 0; // index 0 of the binary palette is black
+                if (!started) {
+                    if (!dark) {
+                        continue;
+                    }
+                    started = true;
+                    bar = true;
+                } else if (dark != bar) {
+                    if (count == runs.length) {
+                        runs = Arrays.copyOf(runs, count * 2);
+                    }
+                    runs[count++] = run;
+                    run = 0;
+                    bar = dark;
+                }
+                run++;
+            }
+            if (started && bar) {
+                if (count == runs.length) {
+                    runs = Arrays.copyOf(runs, count + 1);
+                }
+                runs[count++] = run;
+            }
+            return count; // a trailing space is the quiet zone
+        }
+
+        // Decoded text, or null with the problem when the scan line does not decode
+        private String decode(int count) {
+            if (count < 6 * 2 + STOP_WIDTHS.length || (count - STOP_WIDTHS.length) % 6 != 0) {
+                return fail("no complete symbol sequence (" + count + " bars and spaces; bars cut off?)");
+            }
+            int symbols = (count - STOP_WIDTHS.length) / 6;
+            if (!matches(count - STOP_WIDTHS.length, STOP_WIDTHS)) {
+                return fail("no stop pattern (bars cut off?)");
+            }
+            int start = symbol(0);
+            if (start != Code128Encoder.START_B) {
+                return fail("no Code 128 B start symbol");
+            }
+            StringBuilder text = new StringBuilder(symbols);
+            int checksum = start;
+            for (int s = 1; s < symbols - 1; s++) {
+                int value = symbol(s * 6);
+                if (value < 0) {
+                    return fail("unreadable symbol " + s);
+                } else if (value > 95) {
+                    return fail("unexpected function symbol " + value);
+                }
+                checksum += value * s;
+                text.append((char) (value + 32));
+            }
+            int check = symbol((symbols - 1) * 6);
+            if (check != checksum % 103) {
+                return fail("check symbol mismatch");
+            }
+            return text.toString();
+        }
+
+        // Value of the symbol whose six elements start at runs[offset], or -1
+        private int symbol(int offset) {
+            int total = 0;
+            for (int i = 0; i < 6; i++) {
+                total += runs[offset + i];
+            }
+            // Clean scans round to an exact pattern; others get the closest one within the limit
+            int key = 0;
+            for (int i = 0; i < 6; i++) {
+                int width = (int) Math.round((double) runs[offset + i] * Code128Encoder.SYMBOL_MODULES / total);
+                key = key * 5 + Math.max(0, Math.min(4, width));
+            }
+            if (SYMBOL_BY_WIDTHS[key] >= 0) {
+                return SYMBOL_BY_WIDTHS[key];
+            }
+            int best = -1;
+            double bestError = MAX_SYMBOL_ERROR;
+            for (int value = 0; value < ELEMENT_WIDTHS.length; value++) {
+                double error = error(offset, total, ELEMENT_WIDTHS[value], Code128Encoder.SYMBOL_MODULES);
+                if (error < bestError) {
+                    bestError = error;
+                    best = value;
+                }
+            }
+            return best;
+        }
+
+        private boolean matches(int offset, int[] widths) {
+            int total = 0;
+            for (int i = 0; i < widths.length; i++) {
+                total += runs[offset + i];
+            }
+            return error(offset, total, widths, Code128Encoder.STOP_PATTERN.length()) < MAX_SYMBOL_ERROR;
+        }
+
+        // Sum of the element width errors in modules, with the scan scaled to the pattern width
+        private double error(int offset, int total, int[] widths, int modules) {
+            double error = 0;
+            for (int i = 0; i < widths.length; i++) {
+                error += Math.abs((double) runs[offset + i] * modules / total - widths[i]);
+            }
+            return error;
+        }
+
+        private String fail(String problem) {
+            this.problem = problem;
+            return null;
+        }
+    }
+
+    // Widths in modules of the alternating bars and spaces of a pattern such as "11011001100"
+    private static int[] elementWidths(String pattern) {
+        List<Integer> widths = new ArrayList<>();
+        int run = 1;
+        for (int i = 1; i <= pattern.length(); i++) {
+            if (i < pattern.length() && pattern.charAt(i) == pattern.charAt(i - 1)) {
+                run++;
+            } else {
+                widths.add(run);
+                run = 1;
+            }
+        }
+        int[] result = new int[widths.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = widths.get(i);
+        }
+        return result;
+    }
+}
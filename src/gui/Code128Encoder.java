@@ -0,0 +1,132 @@
+package gui;
+
+// Code 128 (start code B) module encoder. Consecutive labels usually share a prefix
+// (e.g. serial numbers), so only the symbols after the common prefix are re-encoded and
+// the checksum is resumed from the stored running sums.
+class Code128Encoder {
+
+    static final String[] PATTERNS = {
+        "11011001100", "11001101100", "11001100110", "10010011000", "10010001100",
+        "10001001100", "10011001000", "10011000100", "10001100100", "11001001000",
+        "11001000100", "11000100100", "10110011100", "10011011100", "10011001110",
+        "10111001100", "10011101100", "10011100110", "11001110010", "11001011100",
+        "11001001110", "11011100100", "11001110100", "11101101110", "11101001100",
+        "11100101100", "11100100110", "11101100100", "11100110100", "11100110010",
+        "11011011000", "11011000110", "11000110110", "10100011000", "10001011000",
+        "10001000110", "10110001000", "10001101000", "10001100010", "11010001000",
+        "11000101000", "11000100010", "10110111000", "10110001110", "10001101110",
+        "10111011000", "10111000110", "10001110110", "11101110110", "11010001110",
+        "11000101110", "11011101000", "11011100010", "11011101110", "11101011000",
+        "11101000110", "11100010110", "11101101000", "11101100010", "11100011010",
+        "11101111010", "11001000010", "11110001010", "10100110000", "10100001100",
+        "10010110000", "10010000110", "10000101100", "10000100110", "10110010000",
+        "10110000100", "10011010000", "10011000010", "10000110100", "10000110010",
+        "11000010010", "11001010000", "11110111010", "11000010100", "10001111010",
+        "10100111100", "10010111100", "10010011110", "10111100100", "10011110100",
+        "10011110010", "11110100100", "11110010100", "11110010010", "11011011110",
+        "11011110110", "11110110110", "10101111000", "10100011110", "10001011110",
+        "10111101000", "10111100010", "11110101000", "11110100010", "10111011110",
+        "10111101110", "11101011110", "11110101110", "11010000100", "11010010000",
+        "11010011100", "11000111010"
+    };
+
+    static final int START_B = 104;
+    static final String STOP_PATTERN = "1100011101011";
+    static final int SYMBOL_MODULES = 11;
+
+    private static final byte[][] SYMBOL_BITS = new byte[PATTERNS.length][];
+    private static final byte[] STOP_BITS = toBits(STOP_PATTERN);
+
+    static {
+        for (int i = 0; i < PATTERNS.length; i++) {
+            SYMBOL_BITS[i] = toBits(PATTERNS[i]);
+        }
+    }
+
+    private char[] data = new char[32];
+    private int dataLength = -1; // nothing encoded yet
+    private int[] checksums = new int[33]; // checksums[i] = running checksum after i characters
+    private byte[] modules = new byte[moduleCount(32)];
+    private int moduleCount;
+    private char[] scratch = new char[32];
+
+    Code128Encoder() {
+        checksums[0] = START_B % 103;
+        System.arraycopy(SYMBOL_BITS[START_B], 0, modules, 0, SYMBOL_MODULES);
+    }
+
+    // Encodes data[0..length) and returns the number of modules; see modules()
+    int encode(char[] chars, int length) {
+        ensureCapacity(length);
+
+        int common = 0;
+        int limit = Math.min(length, dataLength);
+        while (common < limit && data[common] == chars[common]) {
+            common++;
+        }
+
+        for (int i = common; i < length; i++) {
+            char c = chars[i];
+            int value = symbolValue(c);
+            data[i] = c;
+            checksums[i + 1] = (checksums[i] + value * (i + 1)) % 103;
+            System.arraycopy(SYMBOL_BITS[value], 0, modules, SYMBOL_MODULES * (i + 1), SYMBOL_MODULES);
+        }
+        dataLength = length;
+
+        int checkOffset = SYMBOL_MODULES * (length + 1);
+        System.arraycopy(SYMBOL_BITS[checksums[length]], 0, modules, checkOffset, SYMBOL_MODULES);
+        System.arraycopy(STOP_BITS, 0, modules, checkOffset + SYMBOL_MODULES, STOP_BITS.length);
+        moduleCount = moduleCount(length);
+        return moduleCount;
+    }
+
+    int encode(String text) {
+        if (scratch.length < text.length()) {
+            scratch = new char[text.length()];
+        }
+        text.getChars(0, text.length(), scratch, 0);
+        return encode(scratch, text.length());
+    }
+
+    // 1 = bar, 0 = space; valid up to the count returned by the last encode call
+    byte[] modules() {
+        return modules;
+    }
+
+    static int moduleCount(int dataLength) {
+        return SYMBOL_MODULES * (dataLength + 2) + STOP_BITS.length;
+    }
+
+    // Code set B covers printable ASCII in order from the space; anything else prints as a space
+    static int symbolValue(char c) {
+        if (c >= ' ' && c <= '~') {
+            return c - ' ';
+        }
+        return 0; // Space
+    }
+
+    private void ensureCapacity(int length) {
+        if (data.length >= length) {
+            return;
+        }
+        int capacity = Math.max(length, data.length * 2);
+        char[] newData = new char[capacity];
+        System.arraycopy(data, 0, newData, 0, Math.max(0, dataLength));
+        data = newData;
+        int[] newChecksums = new int[capacity + 1];
+        System.arraycopy(checksums, 0, newChecksums, 0, checksums.length);
+        checksums = newChecksums;
+        byte[] newModules = new byte[moduleCount(capacity)];
+        System.arraycopy(modules, 0, newModules, 0, modules.length);
+        modules = newModules;
+    }
+
+    private static byte[] toBits(String pattern) {
+        byte[] bits = new byte[pattern.length()];
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = (byte) (pattern.charAt(i) == '1' ? 1 : 0);
+        }
+        return bits;
+    }
+}
@@ -0,0 +1,339 @@
+package gui;
+
+import java.awt.Graphics;
+import java.awt.print.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+
+// Append-only journal of print jobs, so a job stopped by a jam or crash can be resumed from
+// the first unconfirmed page, or any page range reprinted, without planning the job again.
+// One tab-separated record per line:
+//
+//   J  job id, paper type, label count, page count     job header, synced before printing
+//   R  job id, quantity, job date, barcode, business name, product name, price, printed date
+//   P  job id, page, start label, end label            page handed to the printer
+//   E  job id, done | failed
+//
+// A page counts as handed over once the printer job asks for a later page or finishes;
+// what the printer does with spooled pages afterwards is only known to the operator.
+// Records are written as they happen but synced in batches to keep fsync off the page path.
+// A crash can leave the last record half written; opening the journal drops it, and loading
+// skips it, but any other damaged record or a job whose records do not add up to its header
+// is an error rather than a job resumed with labels missing.
+class JobJournal implements Closeable {
+
+    static final int SYNC_PAGES = 16;
+    static final long SYNC_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+
+    private final Path file;
+    private final FileChannel channel;
+    private int unsyncedPages;
+    private long lastSync = System.nanoTime();
+
+    private JobJournal(Path file, FileChannel channel) {
+        this.file = file;
+        this.channel = channel;
+    }
+
+    static JobJournal open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            dropIncompleteRecord(channel);
+        }
+        return new JobJournal(file, FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+    }
+
+    // Cuts the file back to its last complete line, so new records start on a line of their own
+    private static void dropIncompleteRecord(FileChannel channel) throws IOException {
+        long size = channel.size();
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        for (long end = size; end > 0; ) {
+            int length = (int) Math.min(buffer.capacity(), end);
+            buffer.clear().limit(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, end - length + buffer.position()) < 0) {
+                    throw new EOFException("Job journal shrank while opening it");
+                }
+            }
+            for (int i = length - 1; i >= 0; i--) {
+                if (buffer.get(i) == '\n') {
+                    if (end - length + i + 1 < size) {
+                        channel.truncate(end - length + i + 1);
+                    }
+                    return;
+                }
+            }
+            end -= length;
+        }
+        channel.truncate(0);
+    }
+
+    // Records a new job and returns it; the definition is synced before the first page prints
+    Job begin(PaperConfig config, LabelBatch labels) throws IOException {
+        String jobId = LabelOutput.newJobId();
+        int pageCount = config.pageCount(labels.size());
+        StringBuilder records = new StringBuilder();
+        appendRecord(records, "J", jobId, config.name, Integer.toString(labels.size()),
+                Integer.toString(pageCount));
+        for (LabelData label : labels.runs()) {
+            appendRecord(records, "R", jobId, Integer.toString(label.quantity), label.jobDate.toString(),
+                    label.barcode, label.businessName, label.productName, label.price, label.printedDate);
+        }
+        write(records, true);
+        return new Job(jobId, config, labels, new BitSet(pageCount));
+    }
+
+    // Replays the journal and returns the job with its confirmed pages
+    Job load(String jobId) throws IOException {
+        PaperConfig config = null;
+        int labelCount = 0;
+        int pageCount = 0;
+        LabelBatch labels = new LabelBatch();
+        BitSet confirmed = new BitSet();
+
+        boolean complete = endsWithNewline();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            int lineNumber = 0;
+            String next = reader.readLine();
+            while (next != null) {
+                String line = next;
+                next = reader.readLine();
+                lineNumber++;
+                if (next == null && !complete) {
+                    break; // written up to a crash
+                }
+                String[] fields = line.split("\t", -1);
+                if (fields.length < 2) {
+                    // Every record has a type and a job id; this is a torn write, not another job
+                    throw new IOException("Job journal " + file + " line " + lineNumber + " is damaged: no job id");
+                }
+                if (!fields[1].equals(jobId)) {
+                    continue;
+                }
+                try {
+                    switch (fields[0]) {
+                        case "J":
+                            if (config != null) {
+                                throw new IOException("Job " + jobId + " is recorded twice in " + file);
+                            }
+                            config = PaperConfig.find(unescape(fields[2]));
+                            if (config == null) {
+                                throw new IOException("Job " + jobId + " uses unknown paper type " + fields[2]);
+                            }
+                            labelCount = Integer.parseInt(fields[3]);
+                            pageCount = Integer.parseInt(fields[4]);
+                            break;
+                        case "R":
+                            labels.add(new LabelData(unescape(fields[4]), unescape(fields[5]), unescape(fields[6]),
+                                    unescape(fields[7]), unescape(fields[8]), Integer.parseInt(fields[2]),
+                                    LocalDate.parse(fields[3])));
+                            break;
+                        case "P":
+                            confirmed.set(Integer.parseInt(fields[2]));
+                            break;
+                        default:
+                            break;
+                    }
+                } catch (RuntimeException e) {
+                    throw new IOException("Job journal " + file + " line " + lineNumber + " is damaged: " + e, e);
+                }
+            }
+        }
+        if (config == null) {
+            throw new IOException("Job " + jobId + " not found in " + file);
+        }
+        if (labels.size() != labelCount || config.pageCount(labels.size()) != pageCount) {
+            throw new IOException("Job " + jobId + " is incomplete in " + file + ": " + labels.size() + " of "
+                    + labelCount + " labels recorded");
+        }
+        return new Job(jobId, config, labels, confirmed);
+    }
+
+    private boolean endsWithNewline() throws IOException {
+        try (FileChannel reader = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = reader.size();
+            ByteBuffer last = ByteBuffer.allocate(1);
+            return size == 0 || (reader.read(last, size - 1) == 1 && last.get(0) == '\n');
+        }
+    }
+
+    private synchronized void pagePrinted(Job job, int page, BarcodePrintable printable) throws IOException {
+        StringBuilder record = new StringBuilder();
+        appendRecord(record, "P", job.id, Integer.toString(page), Integer.toString(printable.startLabel()),
+                Integer.toString(printable.endLabel()));
+        unsyncedPages++;
+        write(record, unsyncedPages >= SYNC_PAGES || System.nanoTime() - lastSync >= SYNC_INTERVAL_NANOS);
+    }
+
+    private synchronized void ended(Job job, boolean done) throws IOException {
+        StringBuilder record = new StringBuilder();
+        appendRecord(record, "E", job.id, done ? "done" : "failed");
+        write(record, true);
+    }
+
+    private void write(StringBuilder records, boolean sync) throws IOException {
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(records.toString());
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        if (sync) {
+            channel.force(false);
+            unsyncedPages = 0;
+            lastSync = System.nanoTime();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (unsyncedPages > 0) {
+            channel.force(false);
+        }
+        channel.close();
+    }
+
+    private static void appendRecord(StringBuilder out, String type, String... fields) {
+        out.append(type);
+        for (String field : fields) {
+            out.append('\t');
+            for (int i = 0; i < field.length(); i++) {
+                char c = field.charAt(i);
+                switch (c) {
+                    case '\\':
+                        out.append("\\\\");
+                        break;
+                    case '\t':
+                        out.append("\\t");
+                        break;
+                    case '\n':
+                        out.append("\\n");
+                        break;
+                    case '\r':
+                        out.append("\\r");
+                        break;
+                    default:
+                        out.append(c);
+                }
+            }
+        }
+        out.append('\n');
+    }
+
+    private static String unescape(String field) {
+        if (field.indexOf('\\') < 0) {
+            return field;
+        }
+        StringBuilder out = new StringBuilder(field.length());
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '\\' && i + 1 < field.length()) {
+                char next = field.charAt(++i);
+                out.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+
+    // A journaled job: its definition and the pages already handed to a printer
+    class Job {
+
+        final String id;
+        final PaperConfig config;
+        final LabelBatch labels;
+        private final BitSet confirmed;
+
+        private Job(String id, PaperConfig config, LabelBatch labels, BitSet confirmed) {
+            this.id = id;
+            this.config = config;
+            this.labels = labels;
+            this.confirmed = confirmed;
+        }
+
+        int pageCount() {
+            return config.pageCount(labels.size());
+        }
+
+        // First page that was never handed to a printer; pageCount() when all were
+        int resumePage() {
+            return Math.min(confirmed.nextClearBit(0), pageCount());
+        }
+
+        int confirmedPages() {
+            return confirmed.cardinality();
+        }
+
+        // Wraps the book holding pages [firstPage, ...) of this job so printed pages are journaled
+        TrackedBook track(Book book, int firstPage) {
+            return new TrackedBook(book, firstPage);
+        }
+
+        class TrackedBook implements Pageable {
+
+            private final Book book;
+            private final int firstPage;
+            private int current = -1; // book page being printed
+
+            private TrackedBook(Book book, int firstPage) {
+                this.book = book;
+                this.firstPage = firstPage;
+            }
+
+            // Ends the job record; when done, the remaining pages of the book were all handed over
+            void finished(boolean done) throws IOException, PrinterException {
+                if (done) {
+                    confirmBefore(book.getNumberOfPages());
+                }
+                ended(Job.this, done);
+            }
+
+            @Override
+            public int getNumberOfPages() {
+                return book.getNumberOfPages();
+            }
+
+            @Override
+            public PageFormat getPageFormat(int pageIndex) {
+                return book.getPageFormat(pageIndex);
+            }
+
+            @Override
+            public Printable getPrintable(int pageIndex) {
+                Printable page = book.getPrintable(pageIndex);
+                return (Graphics graphics, PageFormat pageFormat, int index) -> {
+                    confirmBefore(pageIndex);
+                    return page.print(graphics, pageFormat, index);
+                };
+            }
+
+            // The printer job only moves on once the earlier pages are rendered and spooled
+            private void confirmBefore(int pageIndex) throws PrinterException {
+                while (current < pageIndex) {
+                    if (current >= 0) {
+                        confirm(current);
+                    }
+                    current++;
+                }
+            }
+
+            private void confirm(int pageIndex) throws PrinterException {
+                int page = firstPage + pageIndex;
+                if (confirmed.get(page)) {
+                    return;
+                }
+                try {
+                    pagePrinted(Job.this, page, (BarcodePrintable) book.getPrintable(pageIndex));
+                    confirmed.set(page);
+                } catch (IOException e) {
+                    throw new PrinterException("Writing the job journal failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+}
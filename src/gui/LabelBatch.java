@@ -0,0 +1,69 @@
+package gui;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Ordered runs of labels for one job; label indexes run across all runs. A run may hold
+// only part of a LabelData's quantity (e.g. the labels of one page), starting at an ordinal.
+class LabelBatch {
+
+    private final List<LabelData> runs = new ArrayList<>();
+    private int[] runEnds = new int[8];
+    private long[] runOrdinals = new long[8];
+    private int totalLabels;
+
+    void add(LabelData data) {
+        add(data, data.quantity, 0);
+    }
+
+    // Adds labels [firstOrdinal, firstOrdinal + count) of the data's run
+    void add(LabelData data, int count, long firstOrdinal) {
+        if (count <= 0) {
+            return;
+        }
+        if (runs.size() == runEnds.length) {
+            runEnds = Arrays.copyOf(runEnds, runEnds.length * 2);
+            runOrdinals = Arrays.copyOf(runOrdinals, runOrdinals.length * 2);
+        }
+        totalLabels = Math.addExact(totalLabels, count);
+        runEnds[runs.size()] = totalLabels;
+        runOrdinals[runs.size()] = firstOrdinal;
+        runs.add(data);
+    }
+
+    int size() {
+        return totalLabels;
+    }
+
+    List<LabelData> runs() {
+        return runs;
+    }
+
+    LabelData labelAt(int labelIndex) {
+        return runs.get(runOf(labelIndex));
+    }
+
+    int runOf(int labelIndex) {
+        if (labelIndex < 0 || labelIndex >= totalLabels) {
+            throw new IndexOutOfBoundsException("Label " + labelIndex + " of " + totalLabels);
+        }
+        int run = Arrays.binarySearch(runEnds, 0, runs.size(), labelIndex + 1);
+        return run >= 0 ? run : -run - 1;
+    }
+
+    // Index of the first label of the run
+    int runStart(int run) {
+        return run == 0 ? 0 : runEnds[run - 1];
+    }
+
+    // Index just past the last label of the run
+    int runEnd(int run) {
+        return runEnds[run];
+    }
+
+    // Ordinal of the run's first label within its LabelData, for resolving placeholders
+    long runOrdinal(int run) {
+        return runOrdinals[run];
+    }
+}
@@ -0,0 +1,57 @@
+package gui;
+
+import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.util.Date;
+
+// Text printed on one run of labels. Fields that are not selected are empty. Fields are
+// VariableText source: placeholders such as {serial:6} are resolved per label, and plain data
+// is passed through VariableText.escape, so a journal can store and replay either as is.
+class LabelData {
+
+    final String barcode;
+    final String businessName;
+    final String productName;
+    final String price;
+    final String printedDate;
+    final int quantity;
+    final LocalDate jobDate; // date that {date} placeholders count from
+
+    final VariableText barcodeText;
+    final VariableText businessNameText;
+    final VariableText productNameText;
+    final VariableText priceText;
+    final VariableText printedDateText;
+
+    LabelData(String barcode, String businessName, String productName, String price,
+            String printedDate, int quantity) {
+        this(barcode, businessName, productName, price, printedDate, quantity, LocalDate.now());
+    }
+
+    LabelData(String barcode, String businessName, String productName, String price,
+            String printedDate, int quantity, LocalDate jobDate) {
+        this.barcode = barcode;
+        this.businessName = businessName;
+        this.productName = productName;
+        this.price = price;
+        this.printedDate = printedDate;
+        this.quantity = quantity;
+        this.jobDate = jobDate;
+
+        this.barcodeText = VariableText.compile(barcode, jobDate).checkRun(quantity);
+        this.businessNameText = VariableText.compile(businessName, jobDate).checkRun(quantity);
+        this.productNameText = VariableText.compile(productName, jobDate).checkRun(quantity);
+        this.priceText = VariableText.compile(price, jobDate).checkRun(quantity);
+        this.printedDateText = VariableText.compile(printedDate, jobDate).checkRun(quantity);
+    }
+
+    // True when every label of the run prints the same text
+    boolean isConstant() {
+        return barcodeText.isConstant() && businessNameText.isConstant() && productNameText.isConstant()
+                && priceText.isConstant() && printedDateText.isConstant();
+    }
+
+    static String currentPrintedDate() {
+        return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date());
+    }
+}
@@ -0,0 +1,343 @@
+package gui;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+// Local HTTP service rendering label jobs for other applications
+//
+//   GET  /papers                                       paper type names, one per line
+//   POST /labels?paper=<name>&format=pdf|png|tiff|zpl  body: label specs (see LabelSpecParser)
+//        optional: business=<name>, product=false, price=false, date=false
+//
+// Connections are handled on virtual threads. Jobs wait in a bounded queue; a dispatcher
+// drains it in micro-batches and groups jobs for the same paper type and format. The jobs of
+// a group render in parallel on the render threads and share one text layout cache, so a
+// business name, date or product line that several callers print is laid out once. A full
+// queue answers 503 instead of letting callers pile up, and a request with a body or label
+// count over the limits answers 413 before anything is rendered.
+public class LabelHttpServer {
+
+    static final int DEFAULT_PORT = 8787;
+    static final int DEFAULT_QUEUE_CAPACITY = 256;
+    static final int MAX_BATCH = 64;
+    static final long BATCH_LINGER_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+    static final long RENDER_TIMEOUT_SECONDS = 120;
+    static final long MAX_BODY_BYTES = 4 * 1024 * 1024;
+    static final int MAX_LABELS = 20000;
+
+    private final HttpServer server;
+    private final BlockingQueue<RenderJob> queue;
+    private final ExecutorService connectionExecutor;
+    private final ThreadPoolExecutor renderPool;
+    private final Thread dispatcher;
+    private volatile boolean running;
+
+    // Number of render batches and jobs, for monitoring the batching ratio
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder jobs = new LongAdder();
+
+    LabelHttpServer(InetSocketAddress address, int queueCapacity, int renderThreads) throws IOException {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        connectionExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        // Small hand-off queue; when it is full the dispatcher renders itself and stops draining
+        renderPool = new ThreadPoolExecutor(renderThreads, renderThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(renderThreads), new ThreadPoolExecutor.CallerRunsPolicy());
+        dispatcher = new Thread(this::dispatchLoop, "label-batch-dispatcher");
+        dispatcher.setDaemon(true);
+
+        server = HttpServer.create(address, 0);
+        server.setExecutor(connectionExecutor);
+        server.createContext("/papers", this::handlePapers);
+        server.createContext("/labels", this::handleLabels);
+    }
+
+    void start() {
+        running = true;
+        dispatcher.start();
+        server.start();
+    }
+
+    void stop() {
+        running = false;
+        server.stop(0);
+        dispatcher.interrupt();
+        renderPool.shutdownNow();
+        connectionExecutor.shutdownNow();
+        RenderJob job;
+        while ((job = queue.poll()) != null) {
+            job.result.completeExceptionally(new IOException("Server stopped"));
+        }
+    }
+
+    int port() {
+        return server.getAddress().getPort();
+    }
+
+    long batchCount() {
+        return batches.sum();
+    }
+
+    long jobCount() {
+        return jobs.sum();
+    }
+
+    private void handlePapers(HttpExchange exchange) throws IOException {
+        StringBuilder body = new StringBuilder();
+        for (PaperConfig config : PaperConfig.STANDARD) {
+            body.append(config.name).append('\n');
+        }
+        send(exchange, 200, "text/plain; charset=utf-8", body.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void handleLabels(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                sendText(exchange, 405, "Use POST");
+                return;
+            }
+
+            RenderJob job;
+            try {
+                job = parseJob(exchange);
+            } catch (TooLargeException e) {
+                sendText(exchange, 413, e.getMessage());
+                return;
+            } catch (IllegalArgumentException e) {
+                sendText(exchange, 400, e.getMessage());
+                return;
+            }
+
+            if (!queue.offer(job)) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                sendText(exchange, 503, "Render queue is full");
+                return;
+            }
+
+            try {
+                byte[] body = job.result.get(RENDER_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                send(exchange, 200, job.output.contentType(), body);
+            } catch (ExecutionException e) {
+                sendText(exchange, 500, "Rendering failed: " + e.getCause().getMessage());
+            } catch (TimeoutException e) {
+                job.result.cancel(false); // not rendered yet; nobody waits for it anymore
+                sendText(exchange, 504, "Rendering timed out");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                sendText(exchange, 503, "Server stopping");
+            }
+        }
+    }
+
+    private RenderJob parseJob(HttpExchange exchange) throws IOException {
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (contentLength != null && contentLength.matches("\\d+")
+                && (contentLength.length() > 18 || Long.parseLong(contentLength) > MAX_BODY_BYTES)) {
+            throw new TooLargeException("Request body over " + MAX_BODY_BYTES + " bytes");
+        }
+
+        PaperConfig config = PaperConfig.find(query.getOrDefault("paper", ""));
+        if (config == null) {
+            throw new IllegalArgumentException("Invalid paper type: " + query.get("paper"));
+        }
+        String format = query.getOrDefault("format", "pdf");
+        LabelOutput.StreamOutput output = LabelOutput.forFormat(format);
+
+        LabelSpecParser parser = new LabelSpecParser();
+        parser.placeholders = false;
+        parser.businessName = query.getOrDefault("business", "");
+        parser.includeBusinessName = !parser.businessName.isEmpty();
+        parser.includeProductName = !"false".equals(query.get("product"));
+        parser.includePrice = !"false".equals(query.get("price"));
+        parser.includePrintedDate = !"false".equals(query.get("date"));
+
+        // Read spec by spec, so a huge quantity is refused before it is counted
+        LabelBatch labels = new LabelBatch();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new LimitedInputStream(exchange.getRequestBody(), MAX_BODY_BYTES), StandardCharsets.UTF_8))) {
+            String printedDate = parser.printedDate();
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                LabelData label = parser.parseLine(line, ++lineNumber, printedDate);
+                if (label == null) {
+                    continue;
+                }
+                if (label.quantity > MAX_LABELS - labels.size()) {
+                    throw new TooLargeException("More than " + MAX_LABELS + " labels in one request");
+                }
+                labels.add(label);
+            }
+        }
+        if (labels.size() == 0) {
+            throw new IllegalArgumentException("No labels to print");
+        }
+        return new RenderJob(config, format, output, labels);
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            query.put(URLDecoder.decode(key, StandardCharsets.UTF_8),
+                    URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return query;
+    }
+
+    private void dispatchLoop() {
+        List<RenderJob> drained = new ArrayList<>(MAX_BATCH);
+        while (running) {
+            try {
+                drained.add(queue.take());
+                // Give concurrent callers a moment to join the batch
+                if (queue.isEmpty()) {
+                    TimeUnit.NANOSECONDS.sleep(BATCH_LINGER_NANOS);
+                }
+                queue.drainTo(drained, MAX_BATCH - 1);
+
+                Map<String, List<RenderJob>> groups = new LinkedHashMap<>();
+                for (RenderJob job : drained) {
+                    groups.computeIfAbsent(job.batchKey(), key -> new ArrayList<>()).add(job);
+                }
+                drained.clear();
+
+                for (List<RenderJob> group : groups.values()) {
+                    batches.increment();
+                    TextLayoutCache textCache = group.get(0).output.newTextCache();
+                    for (RenderJob job : group) {
+                        job.output.textCache = textCache;
+                        renderPool.execute(() -> render(job));
+                    }
+                }
+            } catch (InterruptedException | RejectedExecutionException e) {
+                break; // stopping
+            }
+        }
+        for (RenderJob job : drained) {
+            job.result.completeExceptionally(new IOException("Server stopped"));
+        }
+    }
+
+    private void render(RenderJob job) {
+        if (job.result.isDone()) {
+            return; // timed out while queued
+        }
+        jobs.increment();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+            job.output.writeTo(job.config, job.labels, out);
+            job.result.complete(out.toByteArray());
+        } catch (Exception | LinkageError e) {
+            job.result.completeExceptionally(e);
+        }
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String message) throws IOException {
+        send(exchange, status, "text/plain; charset=utf-8", (message + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static class RenderJob {
+
+        final PaperConfig config;
+        final String format;
+        final LabelOutput.StreamOutput output;
+        final LabelBatch labels;
+        final CompletableFuture<byte[]> result = new CompletableFuture<>();
+
+        RenderJob(PaperConfig config, String format, LabelOutput.StreamOutput output, LabelBatch labels) {
+            this.config = config;
+            this.format = format;
+            this.output = output;
+            this.labels = labels;
+        }
+
+        String batchKey() {
+            return config.name + '\n' + format;
+        }
+    }
+
+    // Request over the size limits
+    private static class TooLargeException extends IllegalArgumentException {
+
+        private static final long serialVersionUID = 1L;
+
+        TooLargeException(String message) {
+            super(message);
+        }
+    }
+
+    // Request body that refuses to be read past a limit, e.g. a chunked upload with no length
+    private static class LimitedInputStream extends FilterInputStream {
+
+        private final long limit;
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        private void count(int n) {
+            remaining -= n;
+            if (remaining < 0) {
+                throw new TooLargeException("Request body over " + limit + " bytes");
+            }
+        }
+    }
+
+    // Usage: java -cp BarcodeTest.jar gui.LabelHttpServer [port]
+    public static void main(String[] args) throws IOException {
+        if (System.getProperty("java.awt.headless") == null) {
+            System.setProperty("java.awt.headless", "true");
+        }
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int renderThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+        LabelHttpServer service = new LabelHttpServer(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+                DEFAULT_QUEUE_CAPACITY, renderThreads);
+        service.start();
+        System.err.println("Label service listening on http://localhost:" + service.port() + "/labels");
+    }
+}
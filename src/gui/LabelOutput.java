@@ -0,0 +1,565 @@
+package gui;
+
+import com.itextpdf.awt.PdfGraphics2D;
+import com.itextpdf.text.Document;
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.Rectangle;
+import com.itextpdf.text.pdf.PdfContentByte;
+import com.itextpdf.text.pdf.PdfWriter;
+import java.awt.*;
+import java.awt.print.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.FileImageOutputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import javax.print.PrintService;
+import javax.print.PrintServiceLookup;
+
+// Destination of a label job outside of the Swing panel
+abstract class LabelOutput {
+
+    // Label design of the drawn outputs; ZPL keeps its own printer-side layout
+    LabelTemplate template = LabelTemplate.DEFAULT;
+
+    abstract void write(PaperConfig config, LabelBatch labels) throws IOException, PrinterException;
+
+    // printer[:<name>] | pdf:<file> | png:<dir> | tiff:<file> | zpl:<file> ("-" writes to stdout);
+    // dpi applies to the image outputs
+    static LabelOutput forTarget(String target, int dpi) {
+        int colon = target.indexOf(':');
+        String kind = colon < 0 ? target : target.substring(0, colon);
+        String arg = colon < 0 ? "" : target.substring(colon + 1);
+
+        switch (kind) {
+            case "printer":
+                return new PrinterOutput(arg);
+            case "pdf":
+                return new PdfOutput(requireArg(target, arg));
+            case "png":
+                return new PngOutput(Paths.get(requireArg(target, arg)), dpi);
+            case "tiff":
+                return new TiffOutput(requireArg(target, arg), dpi);
+            case "zpl":
+                return new ZplOutput(requireArg(target, arg), 203);
+            default:
+                throw new IllegalArgumentException("Unknown output target: " + target);
+        }
+    }
+
+    // Stream outputs by format name, for callers that own the destination stream
+    static StreamOutput forFormat(String format) {
+        switch (format) {
+            case "pdf":
+                return new PdfOutput("-");
+            case "png":
+                return new PngOutput(null, 300);
+            case "tiff":
+                return new TiffOutput("-", 300);
+            case "zpl":
+                return new ZplOutput("-", 203);
+            default:
+                throw new IllegalArgumentException("Unknown output format: " + format);
+        }
+    }
+
+    private static String requireArg(String target, String arg) {
+        if (arg.isEmpty()) {
+            throw new IllegalArgumentException("Output target needs a path: " + target);
+        }
+        return arg;
+    }
+
+    // Start time in base 36 and a random part that keeps jobs started in the same millisecond,
+    // e.g. on two machines sharing a journal, apart
+    static String newJobId() {
+        return Long.toString(System.currentTimeMillis(), 36).toUpperCase() + "-"
+                + Integer.toString(ThreadLocalRandom.current().nextInt(36 * 36 * 36 * 36), 36).toUpperCase();
+    }
+
+    static OutputStream openStream(String path) throws IOException {
+        if (path.equals("-")) {
+            return new FilterOutputStream(System.out) {
+                @Override
+                public void close() throws IOException {
+                    flush(); // never close stdout
+                }
+            };
+        }
+        return new BufferedOutputStream(Files.newOutputStream(Paths.get(path)));
+    }
+
+    // Output that can be written to any stream, e.g. an HTTP response body
+    abstract static class StreamOutput extends LabelOutput {
+
+        // Text layouts shared with other jobs of the same paper type and format; null lays
+        // the text of each job out on its own
+        TextLayoutCache textCache;
+
+        abstract String contentType();
+
+        // Empty cache of the kind this output draws with
+        TextLayoutCache newTextCache() {
+            return new TextLayoutCache();
+        }
+
+        TextLayoutCache textCache() {
+            return textCache != null ? textCache : newTextCache();
+        }
+
+        abstract void writeTo(PaperConfig config, LabelBatch labels, OutputStream out)
+                throws IOException, PrinterException;
+    }
+
+    static class PrinterOutput extends LabelOutput {
+
+        private final String printerName;
+        JobJournal journal; // records the pages handed to the printer when set
+
+        PrinterOutput(String printerName) {
+            this.printerName = printerName;
+        }
+
+        @Override
+        void write(PaperConfig config, LabelBatch labels) throws IOException, PrinterException {
+            if (journal != null) {
+                JobJournal.Job job = journal.begin(config, labels);
+                System.err.println("Job " + job.id);
+                print(job, 0, job.pageCount());
+                return;
+            }
+            PrinterJob printerJob = createPrinterJob();
+            RenderStats stats = new RenderStats();
+            printerJob.setPageable(BarcodePrintable.createBook(config, labels, stats, new TextLayoutCache(), template));
+            printerJob.print();
+            System.err.println(stats.summary());
+        }
+
+        // Prints pages [firstPage, endPage) of a journaled job, rendering only those pages
+        void print(JobJournal.Job job, int firstPage, int endPage) throws IOException, PrinterException {
+            PrinterJob printerJob = createPrinterJob();
+            RenderStats stats = new RenderStats();
+            JobJournal.Job.TrackedBook book = job.track(BarcodePrintable.createBook(job.config, job.labels, stats,
+                    new TextLayoutCache(), template, firstPage, endPage), firstPage);
+            printerJob.setPageable(book);
+            try {
+                printerJob.print();
+            } catch (PrinterException e) {
+                book.finished(false);
+                throw e;
+            }
+            book.finished(true);
+            System.err.println(stats.summary());
+        }
+
+        private PrinterJob createPrinterJob() throws PrinterException {
+            PrinterJob printerJob = PrinterJob.getPrinterJob();
+            if (!printerName.isEmpty()) {
+                printerJob.setPrintService(findService(printerName));
+            }
+            return printerJob;
+        }
+
+        static PrintService findService(String name) throws PrinterException {
+            for (PrintService service : PrintServiceLookup.lookupPrintServices(null, null)) {
+                if (service.getName().equalsIgnoreCase(name)) {
+                    return service;
+                }
+            }
+            throw new PrinterException("Printer not found: " + name);
+        }
+    }
+
+    static class PdfOutput extends StreamOutput {
+
+        private final String path;
+
+        PdfOutput(String path) {
+            this.path = path;
+        }
+
+        @Override
+        String contentType() {
+            return "application/pdf";
+        }
+
+        @Override
+        void write(PaperConfig config, LabelBatch labels) throws IOException, PrinterException {
+            try (OutputStream out = openStream(path)) {
+                writeTo(config, labels, out);
+            }
+        }
+
+        @Override
+        TextLayoutCache newTextCache() {
+            return new TextLayoutCache(false);
+        }
+
+        @Override
+        void writeTo(PaperConfig config, LabelBatch labels, OutputStream out) throws IOException, PrinterException {
+            Book book = BarcodePrintable.createBook(config, labels, new RenderStats(), textCache(), template);
+            float width = (float) config.width;
+            float height = (float) config.height;
+
+            try {
+                Document document = new Document(new Rectangle(width, height), 0, 0, 0, 0);
+                PdfWriter writer = PdfWriter.getInstance(document, out);
+                writer.setCloseStream(false);
+                document.open();
+                PdfContentByte content = writer.getDirectContent();
+
+                for (int pageIndex = 0; pageIndex < book.getNumberOfPages(); pageIndex++) {
+                    document.newPage();
+                    Graphics2D g2d = new PdfGraphics2D(content, width, height);
+                    try {
+                        book.getPrintable(pageIndex).print(g2d, book.getPageFormat(pageIndex), pageIndex);
+                    } finally {
+                        g2d.dispose();
+                    }
+                }
+                document.close();
+            } catch (DocumentException e) {
+                throw new IOException("PDF generation failed: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    // Receives the rendered pages of a job in page order
+    abstract static class PageSink implements Closeable {
+
+        abstract void writePage(PageRasterizer page, int pageIndex) throws IOException;
+    }
+
+    // Outputs of rasterized pages; the pages go through a PageSink, so LabelPipeline can
+    // render them on other threads than the one writing them
+    abstract static class RasterOutput extends StreamOutput {
+
+        final int dpi;
+
+        RasterOutput(int dpi) {
+            this.dpi = dpi;
+        }
+
+        // Sink writing to the output's own destination
+        abstract PageSink openSink() throws IOException;
+
+        abstract PageSink openSink(OutputStream out) throws IOException;
+
+        @Override
+        void write(PaperConfig config, LabelBatch labels) throws IOException, PrinterException {
+            try (PageSink sink = openSink()) {
+                writePages(config, labels, sink);
+            }
+        }
+
+        @Override
+        void writeTo(PaperConfig config, LabelBatch labels, OutputStream out) throws IOException, PrinterException {
+            try (PageSink sink = openSink(out)) {
+                writePages(config, labels, sink);
+            }
+        }
+
+        private void writePages(PaperConfig config, LabelBatch labels, PageSink sink)
+                throws IOException, PrinterException {
+            Book book = BarcodePrintable.createBook(config, labels, new RenderStats(), textCache(), template);
+            PageRasterizer rasterizer = new PageRasterizer(config, dpi);
+            for (int pageIndex = 0; pageIndex < book.getNumberOfPages(); pageIndex++) {
+                rasterizer.render(book, pageIndex);
+                sink.writePage(rasterizer, pageIndex);
+            }
+        }
+    }
+
+    // A directory of 1-bit page-NNNN.png files, or a zip of the same entries when streamed
+    static class PngOutput extends RasterOutput {
+
+        private final Path directory;
+
+        PngOutput(Path directory, int dpi) {
+            super(dpi);
+            this.directory = directory;
+        }
+
+        @Override
+        String contentType() {
+            return "application/zip";
+        }
+
+        @Override
+        PageSink openSink() throws IOException {
+            Files.createDirectories(directory);
+            ImageWriter writer = imageWriter("png");
+            return new PageSink() {
+                @Override
+                void writePage(PageRasterizer page, int pageIndex) throws IOException {
+                    Path file = directory.resolve(pageFileName(pageIndex));
+                    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file));
+                            ImageOutputStream imageOut = new MemoryCacheImageOutputStream(out)) {
+                        writer.setOutput(imageOut);
+                        writer.write(page.toPngImage(writer));
+                    }
+                }
+
+                @Override
+                public void close() {
+                    writer.dispose();
+                }
+            };
+        }
+
+        @Override
+        PageSink openSink(OutputStream out) throws IOException {
+            ImageWriter writer = imageWriter("png");
+            ZipOutputStream zip = new ZipOutputStream(out);
+            return new PageSink() {
+                @Override
+                void writePage(PageRasterizer page, int pageIndex) throws IOException {
+                    zip.putNextEntry(new ZipEntry(pageFileName(pageIndex)));
+                    try (ImageOutputStream imageOut = new MemoryCacheImageOutputStream(zip)) {
+                        writer.setOutput(imageOut);
+                        writer.write(page.toPngImage(writer));
+                    }
+                    zip.closeEntry();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        zip.finish();
+                    } finally {
+                        writer.dispose();
+                    }
+                }
+            };
+        }
+
+        private static String pageFileName(int pageIndex) {
+            return String.format("page-%04d.png", pageIndex + 1);
+        }
+    }
+
+    // Multi-page CCITT Group 4 TIFF, written one page at a time through an ImageIO sequence
+    static class TiffOutput extends RasterOutput {
+
+        private final String path;
+
+        TiffOutput(String path, int dpi) {
+            super(dpi);
+            this.path = path;
+        }
+
+        @Override
+        String contentType() {
+            return "image/tiff";
+        }
+
+        @Override
+        PageSink openSink() throws IOException {
+            if (path.equals("-")) {
+                OutputStream out = openStream(path);
+                return new TiffSink(new MemoryCacheImageOutputStream(out), out);
+            }
+            // The writer seeks back to link each page directory, so give it the file itself
+            Files.deleteIfExists(Paths.get(path));
+            ImageOutputStream imageOut = new FileImageOutputStream(new File(path));
+            return new TiffSink(imageOut, imageOut);
+        }
+
+        @Override
+        PageSink openSink(OutputStream out) throws IOException {
+            ImageOutputStream imageOut = new MemoryCacheImageOutputStream(out);
+            return new TiffSink(imageOut, imageOut);
+        }
+
+        private static class TiffSink extends PageSink {
+
+            private final ImageOutputStream imageOut;
+            private final Closeable target;
+            private final ImageWriter writer;
+            private final ImageWriteParam param;
+
+            TiffSink(ImageOutputStream imageOut, Closeable target) throws IOException {
+                this.imageOut = imageOut;
+                this.target = target;
+                this.writer = imageWriter("tiff");
+                this.param = writer.getDefaultWriteParam();
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionType("CCITT T.6");
+                writer.setOutput(imageOut);
+                writer.prepareWriteSequence(null);
+            }
+
+            @Override
+            void writePage(PageRasterizer page, int pageIndex) throws IOException {
+                writer.writeToSequence(page.toTiffImage(), param);
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    writer.endWriteSequence();
+                } finally {
+                    writer.dispose();
+                    imageOut.close();
+                    if (target != imageOut) {
+                        target.close();
+                    }
+                }
+            }
+        }
+    }
+
+    static ImageWriter imageWriter(String format) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+        if (!writers.hasNext()) {
+            throw new IOException("No ImageIO writer for " + format);
+        }
+        return writers.next();
+    }
+
+    // One ZPL format per run of identical labels, repeated with ^PQ on the printer;
+    // runs with per-label fields get one format per label
+    static class ZplOutput extends StreamOutput {
+
+        private final String path;
+        private final int dpi;
+
+        private final BarcodePrintable.FieldBuffer barcode = new BarcodePrintable.FieldBuffer();
+        private final BarcodePrintable.FieldBuffer businessName = new BarcodePrintable.FieldBuffer();
+        private final BarcodePrintable.FieldBuffer productName = new BarcodePrintable.FieldBuffer();
+        private final BarcodePrintable.FieldBuffer price = new BarcodePrintable.FieldBuffer();
+        private final BarcodePrintable.FieldBuffer printedDate = new BarcodePrintable.FieldBuffer();
+
+        ZplOutput(String path, int dpi) {
+            this.path = path;
+            this.dpi = dpi;
+        }
+
+        @Override
+        String contentType() {
+            return "application/vnd.zebra-zpl; charset=utf-8";
+        }
+
+        @Override
+        void write(PaperConfig config, LabelBatch labels) throws IOException {
+            try (OutputStream out = openStream(path)) {
+                writeTo(config, labels, out);
+            }
+        }
+
+        @Override
+        void writeTo(PaperConfig config, LabelBatch labels, OutputStream stream) throws IOException {
+            Writer out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+            for (LabelData label : labels.runs()) {
+                if (label.isConstant()) {
+                    resolveFields(label, 0);
+                    writeLabel(out, config, label.quantity);
+                } else {
+                    for (int ordinal = 0; ordinal < label.quantity; ordinal++) {
+                        resolveFields(label, ordinal);
+                        writeLabel(out, config, 1);
+                    }
+                }
+            }
+            out.flush();
+        }
+
+        private void resolveFields(LabelData label, long ordinal) {
+            barcode.resolve(label.barcodeText, ordinal);
+            businessName.resolve(label.businessNameText, ordinal);
+            productName.resolve(label.productNameText, ordinal);
+            price.resolve(label.priceText, ordinal);
+            printedDate.resolve(label.printedDateText, ordinal);
+        }
+
+        private void writeLabel(Writer out, PaperConfig config, int copies) throws IOException {
+            int width = dots(config.labelWidth);
+            int height = dots(config.labelHeight);
+            int margin = dots(8);
+            int textWidth = width - margin * 2;
+            int currentY = margin;
+
+            out.write("^XA^CI28^PW" + width + "^LL" + height + "\n");
+
+            int businessSize = height / 15;
+            int textSize = height / 18;
+            if (!businessName.isEmpty()) {
+                currentY = writeText(out, businessName, margin, currentY, textWidth, businessSize);
+            }
+            if (!productName.isEmpty()) {
+                // Let long product names wrap onto a second line, as on the rendered sheets
+                int lines = productName.length * textSize * 0.55 > textWidth ? 2 : 1;
+                currentY = writeText(out, productName, margin, currentY, textWidth, textSize, lines);
+            }
+            if (!price.isEmpty()) {
+                currentY = writeText(out, price, margin, currentY, textWidth, textSize);
+            }
+
+            int modules = Code128Encoder.moduleCount(barcode.length);
+            int moduleWidth = Math.max(1, Math.min(3, textWidth / modules));
+            int barcodeX = margin + Math.max(0, (textWidth - modules * moduleWidth) / 2);
+            int barcodeHeight = height / 4;
+            out.write("^FO" + barcodeX + "," + currentY + "^BY" + moduleWidth
+                    + "^BCN," + barcodeHeight + ",N,N,N^FH^FD");
+            writeField(out, barcode);
+            out.write("^FS\n");
+            currentY += barcodeHeight + dots(5);
+
+            currentY = writeText(out, barcode, margin, currentY, textWidth, height / 20);
+            if (!printedDate.isEmpty()) {
+                writeText(out, printedDate, margin, currentY, textWidth, height / 22);
+            }
+
+            out.write("^PQ" + copies + "^XZ\n");
+        }
+
+        private int writeText(Writer out, BarcodePrintable.FieldBuffer text, int x, int y, int width, int size)
+                throws IOException {
+            return writeText(out, text, x, y, width, size, 1);
+        }
+
+        private int writeText(Writer out, BarcodePrintable.FieldBuffer text, int x, int y, int width, int size,
+                int lines) throws IOException {
+            size = Math.max(12, size);
+            out.write("^FO" + x + "," + y + "^A0N," + size + "," + size
+                    + "^FB" + width + "," + lines + ",0,C^FH^FD");
+            writeField(out, text);
+            out.write("^FS\n");
+            return y + size * lines + dots(2);
+        }
+
+        // Field data with ^FH hex escapes for the characters ZPL treats as commands
+        private static void writeField(Writer out, BarcodePrintable.FieldBuffer text) throws IOException {
+            for (int i = 0; i < text.length; i++) {
+                char c = text.chars[i];
+                switch (c) {
+                    case '_':
+                        out.write("_5F");
+                        break;
+                    case '^':
+                        out.write("_5E");
+                        break;
+                    case '~':
+                        out.write("_7E");
+                        break;
+                    default:
+                        out.write(c);
+                }
+            }
+        }
+
+        private int dots(double points) {
+            return (int) Math.round(points * dpi / 72.0);
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package gui;
+
+import java.awt.print.PageFormat;
+import java.awt.print.PrinterException;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// A label job as a pipeline of stages connected by bounded queues:
+//
+//   parse    reads label specs and cuts them into pages               1 thread
+//   encode   resolves the fields and barcode modules of each page     n threads
+//   compose  rasterizes each page                                     n threads
+//   write    passes the pages to the output in page order             1 thread (the caller)
+//
+// A full queue blocks the stage feeding it, so a slow writer holds back rendering instead of
+// letting pages pile up in memory. Parallel stages pass pages on in page order, which keeps
+// the writer simple and bounds the number of page rasters in flight. Each stage counts the
+// time its threads spent working, waiting for input and blocked on a full output queue, and
+// samples the depth of its input queue, to show which stage limits throughput.
+class LabelPipeline {
+
+    static final int DEFAULT_QUEUE_CAPACITY = 8;
+
+    final Stage parse = new Stage("parse", 1);
+    final Stage encode;
+    final Stage compose;
+    final Stage write = new Stage("write", 1);
+
+    private final int queueCapacity;
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile Throwable failure;
+    private volatile Thread caller;
+    private long labelCount;
+    private int pageCount;
+
+    LabelPipeline(int encodeThreads, int composeThreads, int queueCapacity) {
+        if (encodeThreads <= 0 || composeThreads <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("Pipeline threads and queue capacity must be greater than 0");
+        }
+        this.encode = new Stage("encode", encodeThreads);
+        this.compose = new Stage("compose", composeThreads);
+        this.queueCapacity = queueCapacity;
+    }
+
+    long labelCount() {
+        return labelCount;
+    }
+
+    int pageCount() {
+        return pageCount;
+    }
+
+    // Reads the label specs and writes the pages to the output; returns the number of labels
+    long run(LabelSpecParser parser, BufferedReader input, PaperConfig config, LabelOutput.RasterOutput output)
+            throws IOException, PrinterException {
+        encode.input = new ArrayBlockingQueue<>(queueCapacity);
+        compose.input = new ArrayBlockingQueue<>(queueCapacity);
+        write.input = new ArrayBlockingQueue<>(queueCapacity);
+
+        RenderStats stats = new RenderStats();
+        TextLayoutCache textCache = new TextLayoutCache();
+        PageFormat pageFormat = config.createPageFormat();
+
+        // Rasters in flight: one per composer, the write queue and the page being written
+        int maxRasters = compose.threads + queueCapacity + 1;
+        BlockingQueue<PageRasterizer> freeRasterizers = new ArrayBlockingQueue<>(maxRasters);
+        AtomicInteger createdRasterizers = new AtomicInteger();
+        caller = Thread.currentThread();
+
+        start(parse, () -> parsePages(parser, input, config, output.template, stats, textCache));
+        for (int i = 0; i < encode.threads; i++) {
+            start(encode, () -> work(encode, compose.input, page -> page.printable.encode()));
+        }
+        for (int i = 0; i < compose.threads; i++) {
+            start(compose, () -> work(compose, write.input, page -> {
+                PageRasterizer rasterizer = freeRasterizers.poll();
+                if (rasterizer == null && createdRasterizers.getAndIncrement() < maxRasters) {
+                    rasterizer = new PageRasterizer(config, output.dpi);
+                } else if (rasterizer == null) {
+                    long started = System.nanoTime();
+                    rasterizer = freeRasterizers.take();
+                    compose.blockedNanos.add(System.nanoTime() - started);
+                }
+                rasterizer.render(page.printable, pageFormat, page.index);
+                page.rasterizer = rasterizer;
+            }));
+        }
+
+        try (LabelOutput.PageSink sink = output.openSink()) {
+            while (true) {
+                Page page = write.take();
+                if (page.isEnd()) {
+                    break;
+                }
+                long started = System.nanoTime();
+                sink.writePage(page.rasterizer, page.index);
+                write.busyNanos.add(System.nanoTime() - started);
+                write.items.increment();
+                freeRasterizers.offer(page.rasterizer);
+            }
+        } catch (InterruptedException e) {
+            // A stage failed and interrupted the writer; reported below
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+        } finally {
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        Thread.interrupted(); // clear an interrupt sent by a failing stage
+
+        Throwable error = failure;
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        } else if (error instanceof PrinterException) {
+            throw (PrinterException) error;
+        } else if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        } else if (error != null) {
+            throw new PrinterException("Label pipeline failed: " + error);
+        }
+        System.err.println(stats.summary());
+        return labelCount;
+    }
+
+    // Cuts the spec runs into pages; a run spanning pages continues its ordinals on the next one
+    private void parsePages(LabelSpecParser parser, BufferedReader input, PaperConfig config,
+            LabelTemplate template, RenderStats stats, TextLayoutCache textCache)
+            throws IOException, InterruptedException {
+        String printedDate = parser.printedDate();
+        int labelsPerPage = config.labelsPerPage();
+        LabelBatch pageLabels = new LabelBatch();
+        int pageIndex = 0;
+
+        String line;
+        int lineNumber = 0;
+        long started = System.nanoTime();
+        while ((line = input.readLine()) != null) {
+            lineNumber++;
+            LabelData label = parser.parseLine(line, lineNumber, printedDate);
+            if (label == null) {
+                continue;
+            }
+            labelCount += label.quantity;
+            long ordinal = 0;
+            int remaining = label.quantity;
+            while (remaining > 0) {
+                int count = Math.min(remaining, labelsPerPage - pageLabels.size());
+                pageLabels.add(label, count, ordinal);
+                ordinal += count;
+                remaining -= count;
+                if (pageLabels.size() == labelsPerPage) {
+                    parse.busyNanos.add(System.nanoTime() - started);
+                    emit(pageIndex++, config, template, pageLabels, stats, textCache);
+                    pageLabels = new LabelBatch();
+                    started = System.nanoTime();
+                }
+            }
+        }
+        parse.busyNanos.add(System.nanoTime() - started);
+        if (pageLabels.size() > 0) {
+            emit(pageIndex++, config, template, pageLabels, stats, textCache);
+        }
+        pageCount = pageIndex;
+        parse.handOff(new Page(pageIndex, null), encode.input);
+    }
+
+    private void emit(int pageIndex, PaperConfig config, LabelTemplate template, LabelBatch pageLabels,
+            RenderStats stats, TextLayoutCache textCache) throws InterruptedException {
+        // Compiled per page, so conditions are settled for the labels of the page
+        BarcodePrintable printable = new BarcodePrintable(config, pageLabels, 0, pageLabels.size(), stats, textCache,
+                template.compile(config, pageLabels));
+        parse.items.increment();
+        parse.handOff(new Page(pageIndex, printable), encode.input);
+    }
+
+    private void work(Stage stage, BlockingQueue<Page> next, PageTask task) throws Exception {
+        while (true) {
+            Page page = stage.take();
+            if (page.isEnd()) {
+                stage.input.put(page); // for the other workers of the stage
+                if (stage.workerDone()) {
+                    stage.handOff(page, next);
+                }
+                return;
+            }
+            long started = System.nanoTime();
+            task.process(page);
+            stage.busyNanos.add(System.nanoTime() - started);
+            stage.items.increment();
+            stage.handOff(page, next);
+        }
+    }
+
+    private void start(Stage stage, StageBody body) {
+        stage.activeWorkers++;
+        Thread thread = new Thread(() -> {
+            try {
+                body.run();
+            } catch (InterruptedException e) {
+                // Stopped because another stage failed
+            } catch (Throwable e) {
+                fail(e);
+            }
+        }, "label-" + stage.name + "-" + stage.activeWorkers);
+        thread.setDaemon(true);
+        threads.add(thread);
+        thread.start();
+    }
+
+    private synchronized void fail(Throwable error) {
+        if (failure != null) {
+            return;
+        }
+        failure = error;
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        caller.interrupt();
+    }
+
+    String summary() {
+        StringBuilder summary = new StringBuilder();
+        Stage limit = parse;
+        for (Stage stage : new Stage[]{parse, encode, compose, write}) {
+            summary.append(stage.summary()).append('\n');
+            if (stage.busyPerThread() > limit.busyPerThread()) {
+                limit = stage;
+            }
+        }
+        return summary.append("Throughput limited by: ").append(limit.name).toString();
+    }
+
+    private interface PageTask {
+
+        void process(Page page) throws Exception;
+    }
+
+    private interface StageBody {
+
+        void run() throws Exception;
+    }
+
+    private static class Page {
+
+        final int index;
+        final BarcodePrintable printable;
+        PageRasterizer rasterizer;
+
+        Page(int index, BarcodePrintable printable) {
+            this.index = index;
+            this.printable = printable;
+        }
+
+        // Marks the end of the job; its index is the page count
+        boolean isEnd() {
+            return printable == null;
+        }
+    }
+
+    // Threads of one stage and their counters
+    static class Stage {
+
+        final String name;
+        final int threads;
+        BlockingQueue<Page> input; // null for the parse stage, which reads the spec input
+        final LongAdder items = new LongAdder();
+        final LongAdder busyNanos = new LongAdder();
+        final LongAdder idleNanos = new LongAdder(); // waiting for input
+        final LongAdder blockedNanos = new LongAdder(); // waiting for room downstream
+        final LongAdder depthSum = new LongAdder();
+        final LongAdder depthSamples = new LongAdder();
+        final AtomicInteger maxDepth = new AtomicInteger();
+        private int activeWorkers;
+        private int nextOut; // index of the next page to pass on
+
+        Stage(String name, int threads) {
+            this.name = name;
+            this.threads = threads;
+        }
+
+        Page take() throws InterruptedException {
+            int depth = input.size();
+            depthSum.add(depth);
+            depthSamples.increment();
+            maxDepth.accumulateAndGet(depth, Math::max);
+            long started = System.nanoTime();
+            Page page = input.take();
+            idleNanos.add(System.nanoTime() - started);
+            return page;
+        }
+
+        // Passes the page on after all earlier pages; blocks while the next queue is full
+        void handOff(Page page, BlockingQueue<Page> next) throws InterruptedException {
+            long started = System.nanoTime();
+            synchronized (this) {
+                while (page.index != nextOut) {
+                    wait();
+                }
+            }
+            next.put(page);
+            synchronized (this) {
+                nextOut++;
+                notifyAll();
+            }
+            blockedNanos.add(System.nanoTime() - started);
+        }
+
+        synchronized boolean workerDone() {
+            return --activeWorkers == 0;
+        }
+
+        double busyPerThread() {
+            return (double) busyNanos.sum() / threads;
+        }
+
+        String summary() {
+            long samples = depthSamples.sum();
+            String queue = input == null ? "input stream"
+                    : String.format("queue avg %.1f max %d/%d", samples == 0 ? 0.0 : (double) depthSum.sum() / samples,
+                            maxDepth.get(), input.remainingCapacity() + input.size());
+            return String.format("%-8s x%d  %6d page(s)  busy %8.1f ms  idle %8.1f ms  blocked %8.1f ms  %s",
+                    name, threads, items.sum(), busyNanos.sum() / 1e6, idleNanos.sum() / 1e6,
+                    blockedNanos.sum() / 1e6, queue);
+        }
+    }
+}
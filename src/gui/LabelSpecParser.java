@@ -0,0 +1,103 @@
+package gui;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+// Parses tab-separated label specs: barcode[<TAB>quantity[<TAB>product name[<TAB>price]]]
+// or catalog export lines: barcode<TAB>product name<TAB>price, one label each.
+// Product name and price left out of a spec are looked up in the catalog, when one is set.
+// With a print history, specs whose content was already printed on the paper are skipped.
+// Only fields written in a spec line may use VariableText placeholders; catalog exports,
+// catalog lookups and the business name are printed as they are.
+class LabelSpecParser {
+
+    String businessName = "";
+    boolean includeBusinessName = true;
+    boolean includeProductName = true;
+    boolean includePrice = true;
+    boolean includePrintedDate = true;
+    boolean catalogFormat;
+    boolean placeholders = true; // off for specs that carry plain data, e.g. HTTP request bodies
+    ProductIndex catalog;
+    PrintHistory history;
+    PaperConfig paper;
+    int unchangedCount;
+
+    LabelBatch read(BufferedReader reader) throws IOException {
+        String printedDate = printedDate();
+        LabelBatch labels = new LabelBatch();
+
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            LabelData label = parseLine(line, lineNumber, printedDate);
+            if (label != null) {
+                labels.add(label);
+            }
+        }
+        return labels;
+    }
+
+    // Printed date field for the labels of one job
+    String printedDate() {
+        return includePrintedDate ? LabelData.currentPrintedDate() : "";
+    }
+
+    // Label of one input line, or null for blank lines, comments and unchanged specs
+    LabelData parseLine(String line, int lineNumber, String printedDate) {
+        if (line.isBlank() || line.startsWith("#")) {
+            return null;
+        }
+        return parseSpec(line, lineNumber, printedDate);
+    }
+
+    // Label of the line, or null when the history shows it unchanged
+    LabelData parseSpec(String line, int lineNumber, String printedDate) {
+        String[] fields = line.split("\t", -1);
+        String barcode = fields[0].trim();
+        if (barcode.isEmpty()) {
+            throw new IllegalArgumentException("Line " + lineNumber + ": missing barcode");
+        }
+
+        int quantity = 1;
+        int nameField = catalogFormat ? 1 : 2;
+        if (!catalogFormat && fields.length > 1 && !fields[1].isBlank()) {
+            try {
+                quantity = Integer.parseInt(fields[1].trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Line " + lineNumber + ": invalid quantity " + fields[1]);
+            }
+            if (quantity <= 0) {
+                throw new IllegalArgumentException("Line " + lineNumber + ": quantity must be greater than 0");
+            }
+        }
+        String productName = fields.length > nameField && includeProductName ? fields[nameField].trim() : "";
+        String price = fields.length > nameField + 1 && includePrice ? fields[nameField + 1].trim() : "";
+        boolean templates = placeholders && !catalogFormat;
+        String productSource = templates ? productName : VariableText.escape(productName);
+        String priceSource = templates ? price : VariableText.escape(price);
+
+        if (catalog != null && ((includeProductName && productName.isEmpty()) || (includePrice && price.isEmpty()))) {
+            ProductIndex.Product product = catalog.lookup(barcode);
+            if (product != null) {
+                if (includeProductName && productName.isEmpty()) {
+                    productName = product.productName();
+                    productSource = VariableText.escape(productName);
+                }
+                if (includePrice && price.isEmpty()) {
+                    price = product.price();
+                    priceSource = VariableText.escape(price);
+                }
+            }
+        }
+
+        if (history != null && !history.changed(barcode, productName, price, paper)) {
+            unchangedCount++;
+            return null;
+        }
+        return new LabelData(templates ? barcode : VariableText.escape(barcode),
+                includeBusinessName ? VariableText.escape(businessName) : "",
+                productSource, priceSource, VariableText.escape(printedDate), quantity);
+    }
+}
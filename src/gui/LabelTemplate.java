@@ -0,0 +1,568 @@
+package gui;
+
+import java.awt.Font;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Label layout read from a template, one element per line, drawn top to bottom:
+//
+//   margin <points>                      space kept clear on every side of the label (default 8)
+//   top <points>                         first baseline below the top margin (default: the
+//                                        ascent of the first line, so it starts at the margin)
+//   font <family>                        font family of the following text elements (default Arial)
+//   text <field> <style> <size> [options]
+//   text "<literal>" <style> <size> [options]
+//   barcode <height> [options]
+//
+// Fields are business, product, price, barcode (the human readable number) and date; styles
+// are plain, bold, italic and bolditalic. Sizes are h/<n> (a share of the label height, as
+// the original layout divided it), <n>% of the label height, or points; a text size is the
+// line height and the font gets 70% of it. Options:
+//
+//   gap <points>      space added below the element
+//   at <points>       places the element this far below the top margin instead of after the
+//                     previous element; later elements continue below it
+//   x <points>, width <points>   box the element is centered in (default: the full label width)
+//   wrap              long text may wrap onto a second line
+//   if <field>        skips the element and its space when the field is empty
+//
+// Sizes and boxes are checked against each paper type before anything is drawn: a box must
+// start inside the label's content width and end within it, every size must come to at
+// least one point, and the elements, all drawn at their full font size, must fit the content
+// height. Height left over below the last element is what wrapped text may grow into.
+//
+// A template is compiled per job into flat instruction arrays. Fonts and boxes are resolved
+// for the paper type, and conditions are settled for the job where the labels allow it: a
+// field that is empty on every label (e.g. the price is switched off) drops its elements, a
+// field that is never empty drops the check. Only fields that vary per label keep a test.
+class LabelTemplate {
+
+    static final int BUSINESS = 0;
+    static final int PRODUCT = 1;
+    static final int PRICE = 2;
+    static final int BARCODE = 3;
+    static final int DATE = 4;
+    private static final String[] FIELD_NAMES = {"business", "product", "price", "barcode", "date"};
+
+    // Instructions of a compiled template
+    static final byte TEXT = 0; // field text, advances by its height
+    static final byte LITERAL = 1; // fixed text, advances by its height
+    static final byte BARCODE_BARS = 2; // bars of arg points, advances by arg
+    static final byte MOVE = 3; // sets the position to arg below the top margin
+    static final byte SKIP_IF_EMPTY = 4; // continues at instruction arg when the field is empty
+
+    // The layout the labels had before templates. It runs past the bottom margin on the small
+    // paper types when every field is printed, as it always has, so its height is not checked;
+    // it only gets no room to wrap there.
+    static final LabelTemplate DEFAULT = withoutHeightCheck(parse("default", Arrays.asList(
+            "margin 8",
+            "top 8",
+            "text business bold h/15 gap 2 if business",
+            "text product bold h/18 gap 2 wrap if product",
+            "text price bold h/18 gap -2 if price",
+            "barcode 25% gap 5",
+            "text barcode plain h/20 gap 5",
+            "text date plain h/22 if date")));
+
+    private final String name;
+    private final int margin;
+    private final int marginLine;
+    private final int top;
+    private final List<Element> elements;
+    private boolean checkHeight = true;
+
+    private LabelTemplate(String name, int margin, int marginLine, int top, List<Element> elements) {
+        this.name = name;
+        this.margin = margin;
+        this.marginLine = marginLine;
+        this.top = top;
+        this.elements = elements;
+    }
+
+    static LabelTemplate load(Path file) throws IOException {
+        return parse(file.toString(), Files.readAllLines(file, StandardCharsets.UTF_8));
+    }
+
+    static LabelTemplate parse(String name, List<String> lines) {
+        int margin = 8;
+        int marginLine = 0;
+        int top = -1; // below the first line's ascent
+        String family = "Arial";
+        List<Element> elements = new ArrayList<>();
+
+        int lineNumber = 0;
+        for (String line : lines) {
+            lineNumber++;
+            try {
+                List<String> tokens = tokenize(line);
+                if (tokens.isEmpty()) {
+                    continue;
+                }
+                Element element = null;
+                switch (tokens.get(0)) {
+                    case "margin":
+                        margin = atLeast(0, "margin", points(argument(tokens, 1)));
+                        marginLine = lineNumber;
+                        break;
+                    case "top":
+                        top = atLeast(0, "top", points(argument(tokens, 1)));
+                        break;
+                    case "font":
+                        family = argument(tokens, 1);
+                        break;
+                    case "text":
+                        element = parseText(tokens, family);
+                        break;
+                    case "barcode":
+                        element = parseOptions(new Element(BARCODE_BARS, BARCODE, null, null, 0,
+                                Length.parse(argument(tokens, 1))), tokens, 2);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown element " + tokens.get(0));
+                }
+                if (element != null) {
+                    element.line = lineNumber;
+                    elements.add(element);
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(name + " line " + lineNumber + ": " + e.getMessage());
+            }
+        }
+        return new LabelTemplate(name, margin, marginLine, top, elements);
+    }
+
+    private static LabelTemplate withoutHeightCheck(LabelTemplate template) {
+        template.checkHeight = false;
+        return template;
+    }
+
+    private static Element parseText(List<String> tokens, String family) {
+        String source = argument(tokens, 1);
+        String style = argument(tokens, 2);
+        Length size = Length.parse(argument(tokens, 3));
+        int fontStyle;
+        switch (style) {
+            case "plain":
+                fontStyle = Font.PLAIN;
+                break;
+            case "bold":
+                fontStyle = Font.BOLD;
+                break;
+            case "italic":
+                fontStyle = Font.ITALIC;
+                break;
+            case "bolditalic":
+                fontStyle = Font.BOLD | Font.ITALIC;
+                break;
+            default:
+                throw new IllegalArgumentException("unknown font style " + style);
+        }
+        Element element = source.startsWith("\"")
+                ? new Element(LITERAL, -1, source.substring(1), family, fontStyle, size)
+                : new Element(TEXT, field(source), null, family, fontStyle, size);
+        return parseOptions(element, tokens, 4);
+    }
+
+    private static Element parseOptions(Element element, List<String> tokens, int start) {
+        for (int i = start; i < tokens.size(); i++) {
+            String option = tokens.get(i);
+            switch (option) {
+                case "wrap":
+                    element.wrap = true;
+                    break;
+                case "gap":
+                    element.gap = points(argument(tokens, ++i));
+                    break;
+                case "at":
+                    element.at = atLeast(0, "at", points(argument(tokens, ++i)));
+                    break;
+                case "x":
+                    element.x = atLeast(0, "x", points(argument(tokens, ++i)));
+                    break;
+                case "width":
+                    element.width = atLeast(1, "width", points(argument(tokens, ++i)));
+                    break;
+                case "if":
+                    element.condition = field(argument(tokens, ++i));
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option " + option);
+            }
+        }
+        return element;
+    }
+
+    // Whitespace separated tokens; a quoted literal keeps its spaces and is returned with its
+    // opening quote. '#' starts a comment outside of quotes.
+    private static List<String> tokenize(String line) {
+        List<String> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < line.length()) {
+            char c = line.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '#') {
+                break;
+            } else if (c == '"') {
+                int close = line.indexOf('"', i + 1);
+                if (close < 0) {
+                    throw new IllegalArgumentException("unclosed quote");
+                }
+                tokens.add(line.substring(i, close));
+                i = close + 1;
+            } else {
+                int end = i;
+                while (end < line.length() && !Character.isWhitespace(line.charAt(end))) {
+                    end++;
+                }
+                tokens.add(line.substring(i, end));
+                i = end;
+            }
+        }
+        return tokens;
+    }
+
+    private static String argument(List<String> tokens, int index) {
+        if (index >= tokens.size()) {
+            throw new IllegalArgumentException(tokens.get(0) + " needs more arguments");
+        }
+        return tokens.get(index);
+    }
+
+    private static int field(String name) {
+        for (int field = 0; field < FIELD_NAMES.length; field++) {
+            if (FIELD_NAMES[field].equals(name)) {
+                return field;
+            }
+        }
+        throw new IllegalArgumentException("unknown field " + name);
+    }
+
+    private static int points(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid number " + value);
+        }
+    }
+
+    private static int atLeast(int min, String what, int value) {
+        if (value < min) {
+            throw new IllegalArgumentException(what + " must be at least " + min + ", not " + value);
+        }
+        return value;
+    }
+
+    static VariableText text(LabelData label, int field) {
+        switch (field) {
+            case BUSINESS:
+                return label.businessNameText;
+            case PRODUCT:
+                return label.productNameText;
+            case PRICE:
+                return label.priceText;
+            case BARCODE:
+                return label.barcodeText;
+            default:
+                return label.printedDateText;
+        }
+    }
+
+    // Rejects a template whose boxes or sizes do not fit the labels of the paper type, with
+    // every conditional element present
+    void check(PaperConfig config) {
+        checkBoxes(config);
+        layOut(build(config, null), config);
+    }
+
+    private void checkBoxes(PaperConfig config) {
+        int contentWidth = (int) config.labelWidth - margin * 2;
+        int contentHeight = (int) config.labelHeight - margin * 2;
+        if (contentWidth <= 0 || contentHeight <= 0) {
+            throw new IllegalArgumentException(name + (marginLine > 0 ? " line " + marginLine : "") + ": margin "
+                    + margin + " leaves no room on " + config.name);
+        }
+        for (Element element : elements) {
+            if (element.x >= contentWidth) {
+                throw error(element.line, "x " + element.x + " is past the content width " + contentWidth
+                        + " of " + config.name);
+            }
+            if (element.width >= 0 && element.x + element.width > contentWidth) {
+                throw error(element.line, "x " + element.x + " width " + element.width
+                        + " is wider than the content width " + contentWidth + " of " + config.name);
+            }
+            if (element.size.resolve(contentHeight) <= 0) {
+                throw error(element.line, "size comes to 0 points on " + config.name);
+            }
+        }
+    }
+
+    private IllegalArgumentException error(int line, String message) {
+        return new IllegalArgumentException(name + " line " + line + ": " + message);
+    }
+
+    // Compiles the template for the paper type and the labels it will draw
+    Program compile(PaperConfig config, LabelBatch labels) {
+        checkBoxes(config);
+        Program program = build(config, labels);
+        layOut(program, config);
+        return program;
+    }
+
+    // Instructions for the labels; without labels every condition stays a test
+    private Program build(PaperConfig config, LabelBatch labels) {
+        int contentWidth = (int) config.labelWidth - margin * 2;
+        int contentHeight = (int) config.labelHeight - margin * 2;
+        Program program = new Program(name, margin, top, elements.size() * 3);
+
+        for (Element element : elements) {
+            int skip = -1;
+            if (element.condition >= 0) {
+                int empty = labels == null ? -1 : emptyLabels(labels, element.condition);
+                if (labels != null && empty == labels.runs().size()) {
+                    continue;
+                }
+                if (empty != 0) {
+                    skip = program.add(SKIP_IF_EMPTY, element.condition, 0, 0, 0, 0, null, null, false);
+                }
+            }
+            if (element.at != Integer.MIN_VALUE) {
+                program.add(MOVE, -1, element.at, 0, 0, 0, null, null, false);
+            }
+            int width = element.width >= 0 ? element.width : contentWidth - element.x;
+            if (element.op == BARCODE_BARS) {
+                program.add(BARCODE_BARS, element.field, element.size.resolve(contentHeight), element.x, width,
+                        element.gap, null, null, false);
+            } else {
+                // Line height to font size, as the original layout sized its fonts
+                int fontSize = Math.max(TextLayoutCache.MIN_FONT_SIZE, (int) (element.size.resolve(contentHeight) * 0.7));
+                program.add(element.op, element.field, 0, element.x, width, element.gap,
+                        new Font(element.family, element.style, fontSize), element.literal, element.wrap);
+            }
+            program.lines[program.length - 1] = element.line;
+            if (skip >= 0) {
+                program.args[skip] = program.length;
+            }
+        }
+        return program;
+    }
+
+    // Settles the first baseline when the template leaves it open and measures the elements
+    // as drawn, every conditional one present and every line at its full font size. Checked
+    // templates must stay inside the content area; height left below the last element is
+    // shared out to the wrapping text elements.
+    private void layOut(Program program, PaperConfig config) {
+        int contentHeight = (int) config.labelHeight - margin * 2;
+        if (program.top < 0) {
+            program.top = firstBaseline(program);
+        }
+        int y = program.top;
+        double bottom = 0;
+        int bottomLine = 0;
+        int wrapping = 0;
+        for (int pc = 0; pc < program.length; pc++) {
+            double topEdge;
+            double end;
+            switch (program.ops[pc]) {
+                case TEXT:
+                case LITERAL:
+                    topEdge = y - TextLayoutCache.ascent(program.fonts[pc]);
+                    end = topEdge + TextLayoutCache.lineHeight(program.fonts[pc]);
+                    y += TextLayoutCache.lineHeight(program.fonts[pc]) + program.gaps[pc];
+                    if (program.wrap[pc]) {
+                        wrapping++;
+                    }
+                    break;
+                case BARCODE_BARS:
+                    topEdge = y;
+                    end = y + program.args[pc];
+                    y += program.args[pc] + program.gaps[pc];
+                    break;
+                case MOVE:
+                    y = program.args[pc];
+                    continue;
+                default:
+                    continue;
+            }
+            if (checkHeight && topEdge < 0) {
+                throw error(program.lines[pc], "starts " + (int) Math.ceil(-topEdge)
+                        + " point(s) above the top margin on " + config.name + "; move it down with top or at");
+            }
+            if (end > bottom) {
+                bottom = end;
+                bottomLine = program.lines[pc];
+            }
+        }
+        if (checkHeight && bottom > contentHeight) {
+            throw error(bottomLine, "ends " + (int) Math.ceil(bottom) + " points below the top margin, past the"
+                    + " content height " + contentHeight + " of " + config.name);
+        }
+        int spare = wrapping == 0 ? 0 : Math.max(0, (int) (contentHeight - bottom)) / wrapping;
+        for (int pc = 0; pc < program.length; pc++) {
+            if (program.wrap[pc]) {
+                program.heights[pc] = TextLayoutCache.lineHeight(program.fonts[pc]) + spare;
+            }
+        }
+    }
+
+    // Baseline that keeps the first line inside the content area; when that line may be
+    // skipped, the lines that can come first instead count too
+    private static int firstBaseline(Program program) {
+        float ascent = 0;
+        int guardEnd = -1;
+        for (int pc = 0; pc < program.length; pc++) {
+            byte op = program.ops[pc];
+            if (op == SKIP_IF_EMPTY) {
+                guardEnd = Math.max(guardEnd, program.args[pc]);
+                continue;
+            } else if (op == MOVE) {
+                break;
+            } else if (op == TEXT || op == LITERAL) {
+                ascent = Math.max(ascent, TextLayoutCache.ascent(program.fonts[pc]));
+            }
+            if (pc >= guardEnd) {
+                break;
+            }
+        }
+        return (int) Math.ceil(ascent);
+    }
+
+    // Number of label runs on which the field is always empty; text with a counter never is
+    private static int emptyLabels(LabelBatch labels, int field) {
+        int empty = 0;
+        for (LabelData label : labels.runs()) {
+            VariableText text = text(label, field);
+            if (text.isConstant() && text.constantText().isEmpty()) {
+                empty++;
+            }
+        }
+        return empty;
+    }
+
+    private static class Element {
+
+        final byte op;
+        final int field;
+        final String literal;
+        final String family;
+        final int style;
+        final Length size;
+        int line;
+        boolean wrap;
+        int gap;
+        int at = Integer.MIN_VALUE;
+        int x;
+        int width = -1;
+        int condition = -1;
+
+        Element(byte op, int field, String literal, String family, int style, Length size) {
+            this.op = op;
+            this.field = field;
+            this.literal = literal;
+            this.family = family;
+            this.style = style;
+            this.size = size;
+        }
+    }
+
+    // h/<n>, <n>% or <n> points
+    private static class Length {
+
+        final double value;
+        final char unit;
+
+        Length(double value, char unit) {
+            this.value = value;
+            this.unit = unit;
+        }
+
+        static Length parse(String text) {
+            Length length;
+            try {
+                if (text.startsWith("h/")) {
+                    length = new Length(Integer.parseInt(text.substring(2)), '/');
+                } else if (text.endsWith("%")) {
+                    length = new Length(Double.parseDouble(text.substring(0, text.length() - 1)), '%');
+                } else {
+                    length = new Length(Integer.parseInt(text), 'p');
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("invalid size " + text);
+            }
+            // NaN fails the test too
+            if (!(length.value > 0) || (length.unit == '%' && length.value > 100)) {
+                throw new IllegalArgumentException("invalid size " + text + " (must be more than 0"
+                        + (length.unit == '%' ? " and at most 100%)" : ")"));
+            }
+            return length;
+        }
+
+        int resolve(int height) {
+            switch (unit) {
+                case '/':
+                    return height / (int) value;
+                case '%':
+                    return (int) (height * value / 100);
+                default:
+                    return (int) value;
+            }
+        }
+    }
+
+    // Template compiled for one paper type, one instruction per index of the arrays
+    static class Program {
+
+        final String name;
+        final int margin;
+        int top;
+        int length;
+        final byte[] ops;
+        final int[] fields;
+        final int[] args;
+        final int[] xs;
+        final int[] widths;
+        final int[] gaps;
+        final Font[] fonts;
+        final String[] literals;
+        final boolean[] wrap;
+        final int[] heights; // height a wrapping text element may take
+        final int[] lines; // template line of each element
+
+        private Program(String name, int margin, int top, int capacity) {
+            this.name = name;
+            this.margin = margin;
+            this.top = top;
+            ops = new byte[capacity];
+            fields = new int[capacity];
+            args = new int[capacity];
+            xs = new int[capacity];
+            widths = new int[capacity];
+            gaps = new int[capacity];
+            fonts = new Font[capacity];
+            literals = new String[capacity];
+            wrap = new boolean[capacity];
+            heights = new int[capacity];
+            lines = new int[capacity];
+        }
+
+        private int add(byte op, int field, int arg, int x, int width, int gap, Font font, String literal,
+                boolean wraps) {
+            int index = length++;
+            ops[index] = op;
+            fields[index] = field;
+            args[index] = arg;
+            xs[index] = x;
+            widths[index] = width;
+            gaps[index] = gap;
+            fonts[index] = font;
+            literals[index] = literal;
+            wrap[index] = wraps;
+            return index;
+        }
+    }
+}
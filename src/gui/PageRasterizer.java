@@ -0,0 +1,95 @@
+package gui;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.print.Book;
+import java.awt.print.PageFormat;
+import java.awt.print.Printable;
+import java.awt.print.PrinterException;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOInvalidTreeException;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataFormatImpl;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.plugins.tiff.BaselineTIFFTagSet;
+import javax.imageio.plugins.tiff.TIFFDirectory;
+import javax.imageio.plugins.tiff.TIFFField;
+import javax.imageio.plugins.tiff.TIFFTag;
+import javax.imageio.plugins.tiff.TIFFTagSet;
+
+// Renders label pages into one reused 1-bit raster, so exporting a job never holds
+// more than a single page in memory (an A4 page at 600 DPI is about 4.4 MB)
+class PageRasterizer {
+
+    private final int dpi;
+    private final BufferedImage image;
+
+    PageRasterizer(PaperConfig config, int dpi) {
+        this.dpi = dpi;
+        int pixelWidth = (int) Math.ceil(config.width * dpi / 72.0);
+        int pixelHeight = (int) Math.ceil(config.height * dpi / 72.0);
+        this.image = new BufferedImage(pixelWidth, pixelHeight, BufferedImage.TYPE_BYTE_BINARY);
+    }
+
+    // The returned image is overwritten by the next call
+    BufferedImage render(Book book, int pageIndex) throws PrinterException {
+        return render(book.getPrintable(pageIndex), book.getPageFormat(pageIndex), pageIndex);
+    }
+
+    BufferedImage render(Printable page, PageFormat pageFormat, int pageIndex) throws PrinterException {
+        Graphics2D g2d = image.createGraphics();
+        try {
+            g2d.setColor(Color.WHITE);
+            g2d.fillRect(0, 0, image.getWidth(), image.getHeight());
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+            g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_OFF);
+            g2d.scale(dpi / 72.0, dpi / 72.0);
+            page.print(g2d, pageFormat, pageIndex);
+        } finally {
+            g2d.dispose();
+        }
+        return image;
+    }
+
+    // Current page with resolution metadata for the PNG writer
+    IIOImage toPngImage(ImageWriter writer) {
+        ImageTypeSpecifier type = ImageTypeSpecifier.createFromRenderedImage(image);
+        IIOMetadata metadata = writer.getDefaultImageMetadata(type, null);
+        if (metadata != null && metadata.isStandardMetadataFormatSupported() && !metadata.isReadOnly()) {
+            String pixelSizeMM = Double.toString(25.4 / dpi);
+            IIOMetadataNode horizontal = new IIOMetadataNode("HorizontalPixelSize");
+            horizontal.setAttribute("value", pixelSizeMM);
+            IIOMetadataNode vertical = new IIOMetadataNode("VerticalPixelSize");
+            vertical.setAttribute("value", pixelSizeMM);
+            IIOMetadataNode dimension = new IIOMetadataNode("Dimension");
+            dimension.appendChild(horizontal);
+            dimension.appendChild(vertical);
+            IIOMetadataNode root = new IIOMetadataNode(IIOMetadataFormatImpl.standardMetadataFormatName);
+            root.appendChild(dimension);
+            try {
+                metadata.mergeTree(IIOMetadataFormatImpl.standardMetadataFormatName, root);
+            } catch (IIOInvalidTreeException e) {
+                // Resolution is informative only; keep the default metadata
+            }
+        }
+        return new IIOImage(image, null, metadata);
+    }
+
+    // Current page for the TIFF writer. Only the resolution tags are supplied: starting from
+    // the writer's full default metadata pins a small RowsPerStrip, and every strip restarts
+    // the G4 reference line, which makes the pages about five times larger.
+    IIOImage toTiffImage() {
+        BaselineTIFFTagSet baseline = BaselineTIFFTagSet.getInstance();
+        TIFFDirectory directory = new TIFFDirectory(new TIFFTagSet[]{baseline}, null);
+        long[][] resolution = {{dpi, 1}};
+        directory.addTIFFField(new TIFFField(baseline.getTag(BaselineTIFFTagSet.TAG_X_RESOLUTION),
+                TIFFTag.TIFF_RATIONAL, 1, resolution));
+        directory.addTIFFField(new TIFFField(baseline.getTag(BaselineTIFFTagSet.TAG_Y_RESOLUTION),
+                TIFFTag.TIFF_RATIONAL, 1, resolution));
+        directory.addTIFFField(new TIFFField(baseline.getTag(BaselineTIFFTagSet.TAG_RESOLUTION_UNIT),
+                BaselineTIFFTagSet.RESOLUTION_UNIT_INCH));
+        return new IIOImage(image, null, directory.getAsMetadata());
+    }
+}
@@ -0,0 +1,70 @@
+package gui;
+
+import java.awt.print.PageFormat;
+import java.awt.print.Paper;
+
+// Paper configuration shared by the Swing panel and the headless entry points
+class PaperConfig {
+
+    String name;
+    double width; // in points (1mm = 2.83465 points)
+    double height;
+    int columns;
+    int rows;
+    double labelWidth;
+    double labelHeight;
+
+    static final PaperConfig[] STANDARD = {
+
+        new PaperConfig("A4 21up 70mm x 42.4mm", 210, 297, 3, 7), // 21 labels
+        new PaperConfig("A4 24up 70mm x 37mm", 210, 297, 3, 8), // 24 labels
+        new PaperConfig("A4 30up 70mm x 299.7mm", 210, 297, 3, 10), // 30 labels
+        new PaperConfig("A4 44up 48.5mm x 25.4mm", 210, 297, 4, 11), // 44 labels
+        new PaperConfig("A4 56up 52.5mm x 21mm", 210, 297, 4, 14), // 56 labels
+        new PaperConfig("A4 65up 38mm x 21mm", 210, 297, 5, 13), // 65 labels
+        new PaperConfig("A4 68up 48mm x 16.6mm", 210, 297, 4, 17) // 68 labels
+    };
+
+    PaperConfig(String name, double widthMM, double heightMM, int columns, int rows) {
+        this.name = name;
+        this.width = mmToPoints(widthMM);
+        this.height = mmToPoints(heightMM);
+        this.columns = columns;
+        this.rows = rows;
+        this.labelWidth = this.width / columns;
+        this.labelHeight = this.height / rows;
+    }
+
+    static PaperConfig find(String name) {
+        for (PaperConfig config : STANDARD) {
+            if (config.name.equals(name)) {
+                return config;
+            }
+        }
+        return null;
+    }
+
+    int labelsPerPage() {
+        return columns * rows;
+    }
+
+    int pageCount(int totalLabels) {
+        return (int) Math.ceil((double) totalLabels / labelsPerPage());
+    }
+
+    PageFormat createPageFormat() {
+        PageFormat format = new PageFormat();
+        Paper paper = new Paper();
+
+        paper.setSize(width, height);
+        paper.setImageableArea(0, 0, width, height);
+
+        format.setPaper(paper);
+        format.setOrientation(PageFormat.PORTRAIT);
+        return format;
+    }
+
+    static double mmToPoints(double mm) {
+        return mm * 2.83465;
+    }
+}
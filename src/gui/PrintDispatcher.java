@@ -0,0 +1,436 @@
+package gui;
+
+import java.awt.*;
+import java.awt.print.*;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import javax.print.PrintService;
+import javax.print.attribute.standard.QueuedJobCount;
+
+// Splits one label job across several printers. The page range is handed out in shards that
+// printers pull as they finish the previous one, so a fast printer ends up with most of the
+// job without knowing the rates up front. A shard is a share of the pages left, weighted by
+// the printer's measured pages per second and its queue depth, so shards start out large
+// (few header sheets) and get smaller towards the end of the job. Once the rates are known,
+// a printer that would still be busy after the others have finished the rest gets nothing.
+// Every shard starts with a header sheet naming the job and its page range, so the stacks
+// can be merged in page order. When a printer fails, the pages it had not handed over yet go
+// back to the front of the job for the remaining printers.
+class PrintDispatcher extends LabelOutput {
+
+    static final double DEFAULT_PAGES_PER_SECOND = 1.0;
+    // A shard is 1/SHARD_DIVISOR of the printer's weighted share of the pages left
+    static final int SHARD_DIVISOR = 4;
+
+    private final List<Printer> printers;
+
+    PrintDispatcher(List<Printer> printers) {
+        if (printers.isEmpty()) {
+            throw new IllegalArgumentException("No printers to dispatch to");
+        }
+        this.printers = printers;
+    }
+
+    @Override
+    void write(PaperConfig config, LabelBatch labels) throws IOException, PrinterException {
+        String jobId = newJobId();
+        int pageCount = config.pageCount(labels.size());
+        RenderStats stats = new RenderStats();
+        TextLayoutCache textCache = new TextLayoutCache();
+        BlockingQueue<Shard> finished = new LinkedBlockingQueue<>();
+        List<ExecutorService> executors = new ArrayList<>();
+        for (Printer printer : printers) {
+            printer.failed = false;
+            printer.executor = Executors.newSingleThreadExecutor();
+            executors.add(printer.executor);
+        }
+
+        // Page ranges [first, end) not handed out yet, in page order
+        Deque<int[]> pending = new ArrayDeque<>();
+        pending.add(new int[]{0, pageCount});
+        List<Printer> idle = new ArrayList<>(printers);
+        List<String> unprinted = new ArrayList<>();
+        try {
+            int running = assign(idle, pending, config, labels, jobId, pageCount, stats, textCache, finished, 0);
+            while (running > 0) {
+                Shard shard = finished.take();
+                running--;
+                if (shard.error == null) {
+                    shard.printer.recordRate(shard.endPage - shard.firstPage, shard.nanos);
+                    System.err.printf("%s: pages %d-%d (%.1f pages/s)%n", shard.printer.name,
+                            shard.firstPage + 1, shard.endPage, shard.printer.pagesPerSecond());
+                    idle.add(shard.printer);
+                } else {
+                    shard.printer.failed = true;
+                    int resumePage = shard.firstPage + shard.pagesHanded;
+                    System.err.println(shard.printer.name + " failed after page " + resumePage + ": "
+                            + shard.error.getMessage());
+                    if (resumePage < shard.endPage) {
+                        System.err.println("Re-routing pages " + (resumePage + 1) + "-" + shard.endPage);
+                        pending.addFirst(new int[]{resumePage, shard.endPage});
+                    }
+                }
+                running += assign(idle, pending, config, labels, jobId, pageCount, stats, textCache, finished,
+                        running);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PrinterException("Interrupted while printing job " + jobId);
+        } finally {
+            for (ExecutorService executor : executors) {
+                executor.shutdownNow();
+            }
+        }
+        // Adjacent ranges are reported as one
+        int[] open = null;
+        for (int[] range : pending) {
+            if (open != null && open[1] == range[0]) {
+                open[1] = range[1];
+                continue;
+            }
+            if (open != null) {
+                unprinted.add((open[0] + 1) + "-" + open[1]);
+            }
+            open = range.clone();
+        }
+        if (open != null) {
+            unprinted.add((open[0] + 1) + "-" + open[1]);
+        }
+        System.err.println(stats.summary());
+        if (!unprinted.isEmpty()) {
+            throw new PrinterException("All printers failed; job " + jobId + " pages " + unprinted + " not printed");
+        }
+    }
+
+    // Gives the idle printers their next shard, fastest first; returns the number submitted
+    private int assign(List<Printer> idle, Deque<int[]> pending, PaperConfig config, LabelBatch labels,
+            String jobId, int pageCount, RenderStats stats, TextLayoutCache textCache,
+            BlockingQueue<Shard> finished, int running) {
+        idle.removeIf(printer -> printer.failed);
+        // One look at each printer's queue per round: the depth is a query to the print
+        // service, and it must not change while the printers are sorted by it
+        Map<Printer, Double> weights = new HashMap<>();
+        for (Printer printer : printers) {
+            if (!printer.failed) {
+                weights.put(printer, printer.weight());
+            }
+        }
+        idle.sort((a, b) -> Double.compare(weights.get(b), weights.get(a)));
+        int submitted = 0;
+        for (Iterator<Printer> it = idle.iterator(); it.hasNext() && !pending.isEmpty(); ) {
+            Printer printer = it.next();
+            Shard shard = nextShard(printer, pending, weights, running + submitted > 0);
+            if (shard != null) {
+                it.remove();
+                submit(shard, config, labels, jobId, pageCount, stats, textCache, template, finished);
+                submitted++;
+            }
+        }
+        return submitted;
+    }
+
+    // The printer's next pages from the front of the pending ranges, or null when the other
+    // printers would finish the rest sooner than it could print a shard; weights holds the
+    // healthy printers
+    static Shard nextShard(Printer printer, Deque<int[]> pending, Map<Printer, Double> weights,
+            boolean othersBusy) {
+        int pagesLeft = 0;
+        for (int[] range : pending) {
+            pagesLeft += range[1] - range[0];
+        }
+        if (pagesLeft == 0) {
+            return null;
+        }
+        double weight = weights.get(printer);
+        double totalWeight = 0;
+        for (double other : weights.values()) {
+            totalWeight += other;
+        }
+        int size = (int) Math.ceil(pagesLeft * weight / totalWeight / SHARD_DIVISOR);
+        int[] range = pending.peekFirst();
+        size = Math.max(1, Math.min(size, range[1] - range[0]));
+
+        // One page (and its header sheet) against everything left on the others
+        double othersWeight = totalWeight - weight;
+        if (othersBusy && printer.measured() && othersWeight > 0 && 2 / weight > pagesLeft / othersWeight) {
+            return null;
+        }
+        Shard shard = new Shard(printer, range[0], range[0] + size);
+        range[0] += size;
+        if (range[0] == range[1]) {
+            pending.removeFirst();
+        }
+        return shard;
+    }
+
+    private static void submit(Shard shard, PaperConfig config, LabelBatch labels, String jobId, int pageCount,
+            RenderStats stats, TextLayoutCache textCache, LabelTemplate template, BlockingQueue<Shard> finished) {
+        shard.printer.executor.execute(() -> {
+            long started = System.nanoTime();
+            try {
+                if (shard.printer.failed) {
+                    throw new PrinterException(shard.printer.name + " failed earlier in this job");
+                }
+                Book pages = BarcodePrintable.createBook(config, labels, stats, textCache, template,
+                        shard.firstPage, shard.endPage);
+                Book book = new Book();
+                book.append(new ShardHeader(jobId, shard, pageCount), config.createPageFormat());
+                for (int i = 0; i < pages.getNumberOfPages(); i++) {
+                    book.append(pages.getPrintable(i), pages.getPageFormat(i));
+                }
+                shard.printer.print(config, book, shard);
+                shard.pagesHanded = shard.endPage - shard.firstPage;
+            } catch (Exception e) {
+                shard.error = e;
+            }
+            shard.nanos = System.nanoTime() - started;
+            finished.add(shard);
+        });
+    }
+
+    // Pages [firstPage, endPage) of the job on one printer
+    static class Shard {
+
+        final Printer printer;
+        final int firstPage;
+        final int endPage;
+        volatile int pagesHanded; // label pages passed to the printer, header sheet excluded
+        volatile Exception error;
+        volatile long nanos;
+
+        Shard(Printer printer, int firstPage, int endPage) {
+            this.printer = printer;
+            this.firstPage = firstPage;
+            this.endPage = endPage;
+        }
+    }
+
+    // Separator sheet printed in front of each shard
+    static class ShardHeader implements Printable {
+
+        private final String[] lines;
+
+        ShardHeader(String jobId, Shard shard, int pageCount) {
+            this.lines = new String[]{
+                "Job " + jobId,
+                "Pages " + (shard.firstPage + 1) + "-" + shard.endPage + " of " + pageCount,
+                "Printer " + shard.printer.name,
+                shard.firstPage == 0 ? "First stack of the job" : "Stack this shard after page " + shard.firstPage
+            };
+        }
+
+        @Override
+        public int print(Graphics graphics, PageFormat pageFormat, int pageIndex) {
+            Graphics2D g2d = (Graphics2D) graphics;
+            g2d.setColor(Color.BLACK);
+            int x = (int) pageFormat.getImageableX() + 40;
+            int y = (int) pageFormat.getImageableY() + 80;
+            g2d.setFont(new Font("Arial", Font.BOLD, 28));
+            g2d.drawString(lines[0], x, y);
+            g2d.setFont(new Font("Arial", Font.PLAIN, 18));
+            for (int i = 1; i < lines.length; i++) {
+                g2d.drawString(lines[i], x, y + 20 + i * 28);
+            }
+            return PAGE_EXISTS;
+        }
+    }
+
+    // One printer taking shards. The measured rate covers rendering and spooling, which is
+    // what limits a shard's turnaround from the dispatcher's point of view.
+    abstract static class Printer {
+
+        final String name;
+        private double pagesPerSecond = DEFAULT_PAGES_PER_SECOND;
+        private volatile ExecutorService executor;
+        volatile boolean failed;
+        private boolean measured;
+
+        Printer(String name) {
+            this.name = name;
+        }
+
+        // Jobs already waiting at the printer
+        abstract int queueDepth();
+
+        // Prints the shard book (header sheet first) and keeps shard.pagesHanded current
+        abstract void print(PaperConfig config, Book book, Shard shard) throws IOException, PrinterException;
+
+        synchronized double pagesPerSecond() {
+            return pagesPerSecond;
+        }
+
+        // Exponential moving average, so one slow shard does not starve a printer for good;
+        // the first measurement replaces the default
+        synchronized void recordRate(int pages, long nanos) {
+            if (pages > 0 && nanos > 0) {
+                double rate = pages * 1e9 / nanos;
+                pagesPerSecond = measured ? 0.5 * pagesPerSecond + 0.5 * rate : rate;
+                measured = true;
+            }
+        }
+
+        synchronized boolean measured() {
+            return measured;
+        }
+
+        double weight() {
+            return pagesPerSecond() / (1 + queueDepth());
+        }
+    }
+
+    static class ServicePrinter extends Printer {
+
+        private final PrintService service;
+
+        ServicePrinter(PrintService service) {
+            super(service.getName());
+            this.service = service;
+        }
+
+        @Override
+        int queueDepth() {
+            QueuedJobCount queued = service.getAttribute(QueuedJobCount.class);
+            return queued == null ? 0 : queued.getValue();
+        }
+
+        @Override
+        void print(PaperConfig config, Book book, Shard shard) throws PrinterException {
+            PrinterJob printerJob = PrinterJob.getPrinterJob();
+            printerJob.setPrintService(service);
+            printerJob.setJobName(book.getNumberOfPages() + " label page(s) from page " + (shard.firstPage + 1));
+            // A page counts as handed over once the printer job asks for a later one
+            printerJob.setPageable(new Pageable() {
+                @Override
+                public int getNumberOfPages() {
+                    return book.getNumberOfPages();
+                }
+
+                @Override
+                public PageFormat getPageFormat(int pageIndex) {
+                    return book.getPageFormat(pageIndex);
+                }
+
+                @Override
+                public Printable getPrintable(int pageIndex) {
+                    shard.pagesHanded = Math.max(shard.pagesHanded, pageIndex - 1);
+                    return book.getPrintable(pageIndex);
+                }
+            });
+            printerJob.print();
+        }
+    }
+
+    // Stand-in printer writing each page as a PNG file named by its job page number, with an
+    // optional speed limit and a simulated jam after a number of pages, for trying out shard
+    // plans and failover without hardware
+    static class FilePrinter extends Printer {
+
+        private final Path directory;
+        private final int dpi;
+        private final double maxPagesPerSecond;
+        private final int jamAfterPages;
+        private final AtomicInteger pagesPrinted = new AtomicInteger();
+
+        FilePrinter(Path directory, int dpi, double maxPagesPerSecond, int jamAfterPages) {
+            super("file:" + directory);
+            this.directory = directory;
+            this.dpi = dpi;
+            this.maxPagesPerSecond = maxPagesPerSecond;
+            this.jamAfterPages = jamAfterPages;
+        }
+
+        // file:<dir>[?speed=<pages per second>&jam=<pages>]
+        static FilePrinter parse(String spec, int dpi) {
+            String target = spec.substring("file:".length());
+            double speed = 0;
+            int jam = -1;
+            int query = target.lastIndexOf('?');
+            if (query >= 0) {
+                for (String parameter : target.substring(query + 1).split("&")) {
+                    String[] pair = parameter.split("=", 2);
+                    try {
+                        if (pair[0].equals("speed") && pair.length == 2) {
+                            speed = Double.parseDouble(pair[1]);
+                        } else if (pair[0].equals("jam") && pair.length == 2) {
+                            jam = Integer.parseInt(pair[1]);
+                        } else {
+                            throw new IllegalArgumentException("Unknown printer option " + parameter + " in " + spec);
+                        }
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Invalid printer option " + parameter + " in " + spec);
+                    }
+                }
+                target = target.substring(0, query);
+            }
+            if (target.isEmpty()) {
+                throw new IllegalArgumentException("Stand-in printer needs a directory: " + spec);
+            }
+            return new FilePrinter(Path.of(target), dpi, speed, jam);
+        }
+
+        @Override
+        int queueDepth() {
+            return 0;
+        }
+
+        @Override
+        void print(PaperConfig config, Book book, Shard shard) throws IOException, PrinterException {
+            Files.createDirectories(directory);
+            PageRasterizer rasterizer = new PageRasterizer(config, dpi);
+            ImageWriter writer = imageWriter("png");
+            try {
+                for (int pageIndex = 0; pageIndex < book.getNumberOfPages(); pageIndex++) {
+                    long started = System.nanoTime();
+                    boolean header = pageIndex == 0;
+                    if (!header && jamAfterPages >= 0 && pagesPrinted.get() >= jamAfterPages) {
+                        throw new PrinterException(name + " jammed");
+                    }
+                    rasterizer.render(book, pageIndex);
+                    String file = header
+                            ? String.format("page-%04d-header.png", shard.firstPage + 1)
+                            : String.format("page-%04d.png", shard.firstPage + pageIndex);
+                    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(directory.resolve(file)));
+                            ImageOutputStream imageOut = new MemoryCacheImageOutputStream(out)) {
+                        writer.setOutput(imageOut);
+                        writer.write(rasterizer.toPngImage(writer));
+                    }
+                    if (!header) {
+                        pagesPrinted.incrementAndGet();
+                        shard.pagesHanded = pageIndex;
+                    }
+                    throttle(started);
+                }
+            } finally {
+                writer.dispose();
+            }
+        }
+
+        private void throttle(long started) throws PrinterException {
+            if (maxPagesPerSecond <= 0) {
+                return;
+            }
+            long remaining = (long) (1e9 / maxPagesPerSecond) - (System.nanoTime() - started);
+            if (remaining > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new PrinterException(name + " interrupted");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package gui;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.Arrays;
+
+// Fingerprints of the last printed (barcode, product name, price, paper type) per SKU, kept
+// in a file between runs so a delta run prints only the labels whose content changed.
+//
+// Each SKU is one pair of 64-bit hashes: the barcode and the printed content. Two barcodes
+// sharing a hash can only cause extra reprints, never a missed one. Changes found while
+// reading a job are held back until commit(), so a failed print is reprinted next time.
+class PrintHistory {
+
+    private static final int MAGIC = 0x50484953; // "PHIS"
+    private static final int VERSION = 1;
+
+    private final Path file;
+    private long[] keys;
+    private long[] fingerprints;
+    private int size;
+
+    private long[] pendingKeys = new long[1024];
+    private long[] pendingFingerprints = new long[1024];
+    private int pendingCount;
+
+    private PrintHistory(Path file, int capacity) {
+        this.file = file;
+        allocate(capacity);
+    }
+
+    // Loads the history, or starts an empty one when the file does not exist yet
+    static PrintHistory open(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return new PrintHistory(file, 1024);
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a print history file: " + file);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported print history version " + version);
+            }
+            int count = in.readInt();
+            PrintHistory history = new PrintHistory(file, count);
+            for (int i = 0; i < count; i++) {
+                history.put(in.readLong(), in.readLong());
+            }
+            return history;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Number of changed SKUs found since the last commit
+    int pendingCount() {
+        return pendingCount;
+    }
+
+    // True when the label differs from what was last printed for its barcode; the new
+    // fingerprint is remembered for commit()
+    boolean changed(String barcode, String productName, String price, PaperConfig config) {
+        long key = hash(0xCBF29CE484222325L, barcode);
+        long fingerprint = hash(hash(hash(key, productName), price), config.name);
+        // 0 marks an empty slot and a missing fingerprint
+        key = key == 0 ? 1 : key;
+        fingerprint = fingerprint == 0 ? 1 : fingerprint;
+        if (get(key) == fingerprint) {
+            return false;
+        }
+        if (pendingCount == pendingKeys.length) {
+            pendingKeys = Arrays.copyOf(pendingKeys, pendingCount * 2);
+            pendingFingerprints = Arrays.copyOf(pendingFingerprints, pendingCount * 2);
+        }
+        pendingKeys[pendingCount] = key;
+        pendingFingerprints[pendingCount] = fingerprint;
+        pendingCount++;
+        return true;
+    }
+
+    // Records the pending changes as printed and rewrites the file
+    void commit() throws IOException {
+        for (int i = 0; i < pendingCount; i++) {
+            put(pendingKeys[i], pendingFingerprints[i]);
+        }
+        pendingCount = 0;
+
+        Path directory = file.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(directory, "history", ".tmp");
+        try {
+            try (FileOutputStream stream = new FileOutputStream(temp.toFile());
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(size);
+                for (int slot = 0; slot < keys.length; slot++) {
+                    if (keys[slot] != 0) {
+                        out.writeLong(keys[slot]);
+                        out.writeLong(fingerprints[slot]);
+                    }
+                }
+                out.flush();
+                stream.getFD().sync();
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private long get(long key) {
+        int mask = keys.length - 1;
+        for (int slot = slot(key, mask); keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return fingerprints[slot];
+            }
+        }
+        return 0;
+    }
+
+    private void put(long key, long fingerprint) {
+        if ((size + 1) * 2 > keys.length) {
+            long[] oldKeys = keys;
+            long[] oldFingerprints = fingerprints;
+            allocate(keys.length);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    put(oldKeys[i], oldFingerprints[i]);
+                }
+            }
+        }
+        int mask = keys.length - 1;
+        int slot = slot(key, mask);
+        while (keys[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        if (keys[slot] == 0) {
+            size++;
+        }
+        keys[slot] = key;
+        fingerprints[slot] = fingerprint;
+    }
+
+    // Table with room for twice the entries, keeping the load factor at or below 0.5
+    private void allocate(int entries) {
+        int slots = Integer.highestOneBit(Math.max(2, entries) * 2 - 1) << 1;
+        keys = new long[slots];
+        fingerprints = new long[slots];
+        size = 0;
+    }
+
+    private static int slot(long key, int mask) {
+        return (int) (key ^ (key >>> 32)) & mask;
+    }
+
+    // 64-bit FNV-1a, continued from seed; fields are separated by a 0 char
+    private static long hash(long seed, String text) {
+        long hash = seed;
+        for (int i = 0; i < text.length(); i++) {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        return hash * 0x100000001B3L;
+    }
+}
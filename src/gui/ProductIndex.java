@@ -0,0 +1,260 @@
+package gui;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Arrays;
+
+// Read-only barcode -> product name/price lookup over a memory-mapped index file, built once
+// from the tab-separated catalog export (barcode<TAB>product name<TAB>price per line).
+//
+// File layout (big-endian):
+//   header   magic, version, entry count, slot count (power of two)
+//   slots    slot count x (int hash, int record offset + 1); 0 marks an empty slot
+//   pool     records: u16 barcode length, barcode (ASCII), u16 + name (UTF-8), u16 + price (UTF-8)
+//
+// Lookups probe the open-addressed slot table and compare the barcode in place, so opening
+// the index reads nothing up front and the catalog is never copied onto the heap.
+class ProductIndex {
+
+    private static final int MAGIC = 0x50494458; // "PIDX"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int SLOT_SIZE = 8;
+    private static final int MAX_FIELD_BYTES = 0xFFFF;
+
+    private final MappedByteBuffer buffer;
+    private final int size;
+    private final int mask;
+    private final int poolOffset;
+
+    private ProductIndex(MappedByteBuffer buffer) throws IOException {
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a product index file");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported product index version " + buffer.getInt(4));
+        }
+        int slots = buffer.getInt(12);
+        if (Integer.bitCount(slots) != 1 || HEADER_SIZE + (long) slots * SLOT_SIZE > buffer.capacity()) {
+            throw new IOException("Corrupt product index file");
+        }
+        this.buffer = buffer;
+        this.size = buffer.getInt(8);
+        this.mask = slots - 1;
+        this.poolOffset = HEADER_SIZE + slots * SLOT_SIZE;
+    }
+
+    static ProductIndex open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Product index larger than 2 GB: " + file);
+            }
+            // The mapping stays valid after the channel is closed
+            return new ProductIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Product of the barcode, or null when the catalog does not list it
+    Product lookup(String barcode) {
+        int offset = find(barcode);
+        if (offset < 0) {
+            return null;
+        }
+        int nameOffset = offset + 2 + (buffer.getShort(offset) & 0xFFFF);
+        int nameLength = buffer.getShort(nameOffset) & 0xFFFF;
+        int priceOffset = nameOffset + 2 + nameLength;
+        return new Product(readString(nameOffset), readString(priceOffset));
+    }
+
+    boolean contains(String barcode) {
+        return find(barcode) >= 0;
+    }
+
+    // Pool position of the barcode's record, or -1
+    private int find(String barcode) {
+        int hash = hash(barcode);
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int slotOffset = HEADER_SIZE + slot * SLOT_SIZE;
+            int record = buffer.getInt(slotOffset + 4);
+            if (record == 0) {
+                return -1;
+            }
+            if (buffer.getInt(slotOffset) == hash && keyEquals(buffer, poolOffset + record - 1, barcode)) {
+                return poolOffset + record - 1;
+            }
+        }
+    }
+
+    private String readString(int offset) {
+        int length = buffer.getShort(offset) & 0xFFFF;
+        byte[] bytes = new byte[length];
+        buffer.get(offset + 2, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static boolean keyEquals(ByteBuffer pool, int offset, String barcode) {
+        int length = pool.getShort(offset) & 0xFFFF;
+        if (length != barcode.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (pool.get(offset + 2 + i) != (byte) barcode.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // FNV-1a over the barcode characters (ASCII, so the same as over the stored bytes)
+    private static int hash(String barcode) {
+        int hash = 0x811C9DC5;
+        for (int i = 0; i < barcode.length(); i++) {
+            hash ^= barcode.charAt(i);
+            hash *= 0x01000193;
+        }
+        return hash;
+    }
+
+    // Builds the index from a catalog export. Later lines win over earlier lines with the same
+    // barcode. The file is written next to the target and moved into place when complete.
+    static int build(BufferedReader catalog, Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        Path poolFile = Files.createTempFile(directory, "catalog", ".pool");
+        Path indexFile = Files.createTempFile(directory, "catalog", ".index");
+        try {
+            int[] hashes = new int[1024];
+            int[] offsets = new int[1024];
+            int count = 0;
+            long poolSize = 0;
+
+            try (DataOutputStream pool = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(poolFile), 1 << 16))) {
+                String line;
+                int lineNumber = 0;
+                while ((line = catalog.readLine()) != null) {
+                    lineNumber++;
+                    if (line.isBlank() || line.startsWith("#")) {
+                        continue;
+                    }
+                    String[] fields = line.split("\t", -1);
+                    String barcode = fields[0].trim();
+                    byte[] barcodeBytes = barcodeBytes(barcode, lineNumber);
+                    byte[] name = fieldBytes(fields.length > 1 ? fields[1].trim() : "", lineNumber);
+                    byte[] price = fieldBytes(fields.length > 2 ? fields[2].trim() : "", lineNumber);
+
+                    if (count == hashes.length) {
+                        hashes = Arrays.copyOf(hashes, count * 2);
+                        offsets = Arrays.copyOf(offsets, count * 2);
+                    }
+                    hashes[count] = hash(barcode);
+                    offsets[count] = (int) poolSize;
+                    count++;
+
+                    writeField(pool, barcodeBytes);
+                    writeField(pool, name);
+                    writeField(pool, price);
+                    poolSize += 6 + barcodeBytes.length + name.length + price.length;
+                    if (poolSize > Integer.MAX_VALUE) {
+                        throw new IOException("Catalog larger than 2 GB");
+                    }
+                }
+            }
+
+            int slots = Integer.highestOneBit(Math.max(2, count) * 2 - 1) << 1; // load factor <= 0.5
+            int[] table = new int[slots * 2];
+            int entries = fillTable(table, slots - 1, hashes, offsets, count, poolFile);
+
+            try (FileChannel out = FileChannel.open(indexFile, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+                    FileChannel in = FileChannel.open(poolFile, StandardOpenOption.READ)) {
+                if (HEADER_SIZE + (long) slots * SLOT_SIZE + in.size() > Integer.MAX_VALUE) {
+                    throw new IOException("Catalog larger than 2 GB");
+                }
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + slots * SLOT_SIZE);
+                header.putInt(MAGIC).putInt(VERSION).putInt(entries).putInt(slots);
+                header.asIntBuffer().put(table);
+                header.rewind();
+                while (header.hasRemaining()) {
+                    out.write(header);
+                }
+                long position = 0;
+                while (position < in.size()) {
+                    position += in.transferTo(position, in.size() - position, out);
+                }
+                out.force(true);
+            }
+            Files.move(indexFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return entries;
+        } finally {
+            Files.deleteIfExists(poolFile);
+            Files.deleteIfExists(indexFile);
+        }
+    }
+
+    // Inserts every record into the slot table and returns the number of distinct barcodes
+    private static int fillTable(int[] table, int mask, int[] hashes, int[] offsets, int count, Path poolFile)
+            throws IOException {
+        MappedByteBuffer pool;
+        try (FileChannel channel = FileChannel.open(poolFile, StandardOpenOption.READ)) {
+            pool = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        int entries = 0;
+        for (int i = 0; i < count; i++) {
+            String barcode = readBarcode(pool, offsets[i]);
+            for (int slot = hashes[i] & mask; ; slot = (slot + 1) & mask) {
+                int record = table[slot * 2 + 1];
+                if (record == 0) {
+                    entries++;
+                } else if (table[slot * 2] != hashes[i] || !keyEquals(pool, record - 1, barcode)) {
+                    continue;
+                }
+                table[slot * 2] = hashes[i];
+                table[slot * 2 + 1] = offsets[i] + 1;
+                break;
+            }
+        }
+        return entries;
+    }
+
+    private static String readBarcode(ByteBuffer pool, int offset) {
+        byte[] bytes = new byte[pool.getShort(offset) & 0xFFFF];
+        pool.get(offset + 2, bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] barcodeBytes(String barcode, int lineNumber) {
+        if (barcode.isEmpty()) {
+            throw new IllegalArgumentException("Catalog line " + lineNumber + ": missing barcode");
+        }
+        for (int i = 0; i < barcode.length(); i++) {
+            if (barcode.charAt(i) < 32 || barcode.charAt(i) > 126) {
+                throw new IllegalArgumentException("Catalog line " + lineNumber + ": barcode must be printable ASCII");
+            }
+        }
+        return fieldBytes(barcode, lineNumber);
+    }
+
+    private static byte[] fieldBytes(String text, int lineNumber) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_FIELD_BYTES) {
+            throw new IllegalArgumentException("Catalog line " + lineNumber + ": field too long");
+        }
+        return bytes;
+    }
+
+    private static void writeField(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    record Product(String productName, String price) {
+    }
+}
@@ -0,0 +1,33 @@
+package gui;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters for how often printer drivers call back into the page renderer. Banding
+// drivers call print several times per page, each time with a different clip.
+class RenderStats {
+
+    final LongAdder pages = new LongAdder();
+    final LongAdder bands = new LongAdder();
+    final LongAdder labelsDrawn = new LongAdder();
+    final LongAdder labelsSkipped = new LongAdder();
+    final LongAdder renderNanos = new LongAdder();
+
+    // Average number of print calls per page
+    double bandMultiplier() {
+        long pageCount = pages.sum();
+        return pageCount == 0 ? 0 : (double) bands.sum() / pageCount;
+    }
+
+    // Render time the skipped labels would have cost at the measured per-label rate
+    long estimatedSavedNanos() {
+        long drawn = labelsDrawn.sum();
+        return drawn == 0 ? 0 : renderNanos.sum() * labelsSkipped.sum() / drawn;
+    }
+
+    String summary() {
+        return String.format("Rendered %d page(s) in %d band(s) (x%.2f), drew %d label(s), "
+                + "skipped %d outside the clip, render %.1f ms, saved ~%.1f ms",
+                pages.sum(), bands.sum(), bandMultiplier(), labelsDrawn.sum(), labelsSkipped.sum(),
+                renderNanos.sum() / 1e6, estimatedSavedNanos() / 1e6);
+    }
+}
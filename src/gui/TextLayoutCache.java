@@ -0,0 +1,214 @@
+package gui;
+
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.font.LineMetrics;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Lays out each distinct label string once per job. The font size is the largest one (up to
+// the field's normal size) at which the text fits the cell width, optionally wrapped onto two
+// lines when both fit the height the layout leaves the text, and the shaped GlyphVectors are
+// kept and redrawn for every label that shows the text.
+// The cache keeps the most recently used blocks only, so a job of mostly distinct texts (e.g.
+// a whole catalog) does not hold a block for every label it has drawn.
+class TextLayoutCache {
+
+    static final int MIN_FONT_SIZE = 6;
+
+    // Layout happens in point space; the printer, PDF or raster transform scales the outlines
+    private static final FontRenderContext FRC = new FontRenderContext(null, false, true);
+    private static final float REFERENCE_SIZE = 100f;
+
+    // Wrap when one line would have to shrink below this share of the normal size, or
+    // when it does not fit even at the minimum size
+    private static final double WRAP_THRESHOLD = 0.8;
+
+    // Several pages' worth of distinct texts on the largest paper types
+    static final int DEFAULT_CAPACITY = 4096;
+
+    private final Map<Key, TextBlock> blocks;
+
+    // PDF graphics turn glyph vectors into filled outlines, so vector outputs draw the fitted
+    // lines as strings to keep real (small, searchable) text in the document
+    private final boolean drawGlyphs;
+
+    TextLayoutCache() {
+        this(true);
+    }
+
+    TextLayoutCache(boolean drawGlyphs) {
+        this(drawGlyphs, DEFAULT_CAPACITY);
+    }
+
+    TextLayoutCache(boolean drawGlyphs, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Text layout cache capacity must be greater than 0");
+        }
+        this.drawGlyphs = drawGlyphs;
+        this.blocks = new LinkedHashMap<>(Math.min(capacity, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, TextBlock> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    private record Key(Font font, String text, int maxWidth, int maxHeight, boolean wrap) {
+    }
+
+    // maxHeight only limits wrapped text; a single line always gets the font's line height
+    TextBlock layout(Font font, String text, int maxWidth, int maxHeight, boolean wrap) {
+        Key key = new Key(font, text, maxWidth, wrap ? maxHeight : 0, wrap);
+        TextBlock block;
+        synchronized (blocks) {
+            block = blocks.get(key);
+        }
+        if (block == null) {
+            // Laid out outside the lock; two threads may both lay out a new text, which is harmless
+            block = createBlock(key);
+            synchronized (blocks) {
+                blocks.put(key, block);
+            }
+        }
+        return block;
+    }
+
+    private TextBlock createBlock(Key key) {
+        Font font = key.font();
+        String text = key.text();
+        int maxSize = font.getSize();
+
+        int singleSize = fitSize(font, referenceWidth(font, text), key.maxWidth(), maxSize);
+        singleSize = shrinkToFit(font, text, key.maxWidth(), singleSize);
+
+        boolean overflows = width(font, text, singleSize) > key.maxWidth();
+        if (key.wrap() && (overflows || singleSize < maxSize * WRAP_THRESHOLD)) {
+            int split = bestSplit(font, text);
+            if (split > 0) {
+                String first = text.substring(0, split).trim();
+                String second = text.substring(split).trim();
+                double widest = Math.max(referenceWidth(font, first), referenceWidth(font, second));
+                int wrappedSize = fitSize(font, widest, key.maxWidth(), maxSize);
+                wrappedSize = Math.min(shrinkToFit(font, first, key.maxWidth(), wrappedSize),
+                        shrinkToFit(font, second, key.maxWidth(), wrappedSize));
+                // Both lines have to fit the height, or the text runs into what is drawn below it
+                while (wrappedSize > MIN_FONT_SIZE && 2 * lineHeight(font.deriveFont((float) wrappedSize))
+                        > key.maxHeight()) {
+                    wrappedSize--;
+                }
+                boolean wrappedFits = width(font, first, wrappedSize) <= key.maxWidth()
+                        && width(font, second, wrappedSize) <= key.maxWidth()
+                        && 2 * lineHeight(font.deriveFont((float) wrappedSize)) <= key.maxHeight();
+                if (wrappedFits && (wrappedSize > singleSize || overflows)) {
+                    return new TextBlock(font.deriveFont((float) wrappedSize), drawGlyphs, first, second);
+                }
+            }
+        }
+        return new TextBlock(font.deriveFont((float) singleSize), drawGlyphs, text);
+    }
+
+    // Baseline to baseline distance of lines in the font, as TextBlock spaces them
+    static int lineHeight(Font font) {
+        LineMetrics metrics = font.getLineMetrics("Ag", FRC);
+        return (int) Math.ceil(metrics.getAscent() + metrics.getDescent() + metrics.getLeading());
+    }
+
+    static float ascent(Font font) {
+        return font.getLineMetrics("Ag", FRC).getAscent();
+    }
+
+    // Advance of the text at the reference size; advances scale linearly with the size
+    private static double referenceWidth(Font font, String text) {
+        return font.deriveFont(REFERENCE_SIZE).createGlyphVector(FRC, text).getLogicalBounds().getWidth();
+    }
+
+    // Largest whole size in [MIN_FONT_SIZE, maxSize] whose scaled advance fits maxWidth
+    private static int fitSize(Font font, double referenceWidth, int maxWidth, int maxSize) {
+        int low = MIN_FONT_SIZE;
+        int high = Math.max(MIN_FONT_SIZE, maxSize);
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (referenceWidth * mid / REFERENCE_SIZE <= maxWidth) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    // Corrects the linear estimate for hinting at small sizes
+    private static int shrinkToFit(Font font, String text, int maxWidth, int size) {
+        while (size > MIN_FONT_SIZE && width(font, text, size) > maxWidth) {
+            size--;
+        }
+        return size;
+    }
+
+    private static double width(Font font, String text, int size) {
+        return font.deriveFont((float) size).createGlyphVector(FRC, text).getLogicalBounds().getWidth();
+    }
+
+    // Space that best balances the two lines, or -1 when the text has no space
+    private static int bestSplit(Font font, String text) {
+        int best = -1;
+        double bestWidth = Double.MAX_VALUE;
+        for (int i = text.indexOf(' '); i > 0; i = text.indexOf(' ', i + 1)) {
+            double widest = Math.max(referenceWidth(font, text.substring(0, i)),
+                    referenceWidth(font, text.substring(i + 1)));
+            if (widest < bestWidth) {
+                bestWidth = widest;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    // One or two centered lines of shaped text
+    static class TextBlock {
+
+        private final Font font;
+        private final String[] text;
+        private final GlyphVector[] lines;
+        private final float[] widths;
+        private final int lineHeight;
+        private final boolean drawGlyphs;
+
+        TextBlock(Font font, boolean drawGlyphs, String... text) {
+            this.font = font;
+            this.text = text;
+            this.drawGlyphs = drawGlyphs;
+            this.lines = new GlyphVector[text.length];
+            this.widths = new float[text.length];
+            for (int i = 0; i < text.length; i++) {
+                lines[i] = font.createGlyphVector(FRC, text[i]);
+                widths[i] = (float) lines[i].getLogicalBounds().getWidth();
+            }
+            LineMetrics metrics = font.getLineMetrics(text[0], FRC);
+            this.lineHeight = (int) Math.ceil(metrics.getAscent() + metrics.getDescent() + metrics.getLeading());
+        }
+
+        // Draws the lines centered in [x, x + width] with the first baseline at y; returns the height used
+        int draw(Graphics2D g2d, int x, int y, int width) {
+            if (!drawGlyphs) {
+                g2d.setFont(font);
+            }
+            for (int i = 0; i < lines.length; i++) {
+                float lineX = x + (width - widths[i]) / 2;
+                float baseline = y + i * lineHeight;
+                if (drawGlyphs) {
+                    g2d.drawGlyphVector(lines[i], lineX, baseline);
+                } else {
+                    g2d.drawString(text[i], lineX, baseline);
+                }
+            }
+            return height();
+        }
+
+        int height() {
+            return lines.length * lineHeight;
+        }
+    }
+}
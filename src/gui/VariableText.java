@@ -0,0 +1,221 @@
+package gui;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+// Label text with per-label placeholders, compiled once per run:
+//
+//   {serial[:width[:start[:step]]]}   counter for the label's position in its run, zero padded
+//   {date[+|-N(d|w|m|y)][:pattern]}  job date with optional offset, e.g. {date+18m:yyMMdd}
+//   {{ and }}                         literal braces
+//
+// A counter must stay within a long for every label of its run; runs that would overflow are
+// rejected when the label is created rather than printing a wrapped, non-numeric serial.
+//
+// Resolving writes into a caller-owned char buffer, so printing a serialized run does not
+// create a String per label. Dates are fixed for the job and folded into the literal text.
+class VariableText {
+
+    private static final int MAX_COUNTER_DIGITS = 20;
+
+    private final String source;
+    private final char[][] literals; // literals[i] precedes counters[i]; one more literal than counters
+    private final long[] counterStart;
+    private final long[] counterStep;
+    private final int[] counterWidth;
+    private final int maxLength;
+    private final String constantText; // resolved text when there are no counters
+
+    private VariableText(String source, List<char[]> literals, List<long[]> counters) {
+        this.source = source;
+        this.literals = literals.toArray(new char[0][]);
+        this.counterStart = new long[counters.size()];
+        this.counterStep = new long[counters.size()];
+        this.counterWidth = new int[counters.size()];
+        int length = 0;
+        for (char[] literal : this.literals) {
+            length += literal.length;
+        }
+        for (int i = 0; i < counters.size(); i++) {
+            long[] counter = counters.get(i);
+            counterWidth[i] = (int) counter[0];
+            counterStart[i] = counter[1];
+            counterStep[i] = counter[2];
+            length += Math.max(counterWidth[i], MAX_COUNTER_DIGITS);
+        }
+        this.maxLength = length;
+        this.constantText = counters.isEmpty() ? new String(this.literals[0]) : null;
+    }
+
+    static VariableText compile(String text, LocalDate jobDate) {
+        List<char[]> literals = new ArrayList<>();
+        List<long[]> counters = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if ((c == '{' || c == '}') && i + 1 < text.length() && text.charAt(i + 1) == c) {
+                literal.append(c);
+                i += 2;
+                continue;
+            }
+            if (c != '{') {
+                literal.append(c);
+                i++;
+                continue;
+            }
+            int close = text.indexOf('}', i);
+            if (close < 0) {
+                throw new IllegalArgumentException("Unclosed placeholder in: " + text);
+            }
+            String placeholder = text.substring(i + 1, close);
+            if (placeholder.startsWith("serial")) {
+                literals.add(literal.toString().toCharArray());
+                literal.setLength(0);
+                counters.add(parseCounter(placeholder, text));
+            } else if (placeholder.startsWith("date")) {
+                literal.append(formatDate(placeholder, jobDate, text));
+            } else {
+                throw new IllegalArgumentException("Unknown placeholder {" + placeholder + "} in: " + text);
+            }
+            i = close + 1;
+        }
+        literals.add(literal.toString().toCharArray());
+        return new VariableText(text, literals, counters);
+    }
+
+    // Source text that compiles to exactly the given text, for values that are data rather than
+    // templates, e.g. catalog names that may contain braces
+    static String escape(String text) {
+        if (text.indexOf('{') < 0 && text.indexOf('}') < 0) {
+            return text;
+        }
+        return text.replace("{", "{{").replace("}", "}}");
+    }
+
+    private static long[] parseCounter(String placeholder, String text) {
+        String[] parts = placeholder.split(":", -1);
+        if (!parts[0].equals("serial") || parts.length > 4) {
+            throw new IllegalArgumentException("Invalid serial placeholder {" + placeholder + "} in: " + text);
+        }
+        try {
+            long width = parts.length > 1 && !parts[1].isEmpty() ? Integer.parseInt(parts[1]) : 0;
+            long start = parts.length > 2 && !parts[2].isEmpty() ? Long.parseLong(parts[2]) : 1;
+            long step = parts.length > 3 && !parts[3].isEmpty() ? Long.parseLong(parts[3]) : 1;
+            if (width < 0 || width > 64 || start < 0 || step < 0) {
+                throw new IllegalArgumentException("Invalid serial placeholder {" + placeholder + "} in: " + text);
+            }
+            return new long[]{width, start, step};
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid serial placeholder {" + placeholder + "} in: " + text);
+        }
+    }
+
+    private static String formatDate(String placeholder, LocalDate jobDate, String text) {
+        int colon = placeholder.indexOf(':');
+        String offset = placeholder.substring("date".length(), colon < 0 ? placeholder.length() : colon);
+        String pattern = colon < 0 ? "yyyy-MM-dd" : placeholder.substring(colon + 1);
+
+        LocalDate date = jobDate;
+        if (!offset.isEmpty()) {
+            char unit = offset.charAt(offset.length() - 1);
+            long amount;
+            try {
+                amount = Long.parseLong(offset.substring(0, offset.length() - 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid date offset {" + placeholder + "} in: " + text);
+            }
+            switch (unit) {
+                case 'd':
+                    date = date.plusDays(amount);
+                    break;
+                case 'w':
+                    date = date.plusWeeks(amount);
+                    break;
+                case 'm':
+                    date = date.plusMonths(amount);
+                    break;
+                case 'y':
+                    date = date.plusYears(amount);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Invalid date offset {" + placeholder + "} in: " + text);
+            }
+        }
+        try {
+            return date.format(DateTimeFormatter.ofPattern(pattern));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid date pattern {" + placeholder + "} in: " + text);
+        }
+    }
+
+    // Rejects counters whose value for the last of count labels does not fit in a long
+    VariableText checkRun(long count) {
+        for (int i = 0; i < counterWidth.length; i++) {
+            try {
+                Math.addExact(counterStart[i], Math.multiplyExact(Math.max(0, count - 1), counterStep[i]));
+            } catch (ArithmeticException e) {
+                throw new IllegalArgumentException("Serial counter overflows within " + count + " labels in: "
+                        + source);
+            }
+        }
+        return this;
+    }
+
+    boolean isConstant() {
+        return counterWidth.length == 0;
+    }
+
+    // Resolved text of a constant field; null when the text has counters
+    String constantText() {
+        return constantText;
+    }
+
+    boolean isEmpty() {
+        return maxLength == 0;
+    }
+
+    // Upper bound of the resolved length, for sizing buffers
+    int maxLength() {
+        return maxLength;
+    }
+
+    // Writes the text for the label at position ordinal (0-based) in its run and returns its length
+    int resolve(long ordinal, char[] out) {
+        int length = 0;
+        for (int i = 0; i < counterWidth.length; i++) {
+            char[] literal = literals[i];
+            System.arraycopy(literal, 0, out, length, literal.length);
+            length += literal.length;
+            length = writeNumber(counterStart[i] + ordinal * counterStep[i], counterWidth[i], out, length);
+        }
+        char[] tail = literals[counterWidth.length];
+        System.arraycopy(tail, 0, out, length, tail.length);
+        return length + tail.length;
+    }
+
+    private static int writeNumber(long value, int width, char[] out, int offset) {
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        int end = offset + Math.max(width, digits);
+        int position = end;
+        do {
+            out[--position] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        while (position > offset) {
+            out[--position] = '0';
+        }
+        return end;
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+}
@@ -0,0 +1,77 @@
+package gui;
+
+import java.awt.HeadlessException;
+import java.awt.print.PrinterException;
+import java.awt.print.PrinterJob;
+import java.io.IOException;
+import java.io.OutputStream;
+import javax.print.PrintServiceLookup;
+
+// Does the slow first-time work of a label job before the user asks for one: loads the
+// label fonts, discovers the print services and renders one page of every paper type, so
+// the classes are loaded and the layout and barcode code has been through the JIT once.
+//
+// main() is the training run of the class data sharing archive built by "ant cds"; it also
+// writes every output format once, so their classes end up in the archive.
+class WarmUp {
+
+    private WarmUp() {
+    }
+
+    // Warms up on a low priority daemon thread; returns the thread
+    static Thread start(PaperConfig[] configs, boolean printServices) {
+        Thread thread = new Thread(() -> run(configs, printServices), "label-warm-up");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+        return thread;
+    }
+
+    static void run(PaperConfig[] configs, boolean printServices) {
+        if (printServices) {
+            lookUpPrintServices();
+        }
+        for (PaperConfig config : configs) {
+            try {
+                new PageRasterizer(config, 72).render(BarcodePrintable.createBook(config, sampleLabels(config)), 0);
+            } catch (PrinterException | RuntimeException e) {
+                // Warming up is best effort; the real job reports its own errors
+            }
+        }
+    }
+
+    private static void lookUpPrintServices() {
+        try {
+            PrintServiceLookup.lookupDefaultPrintService();
+            PrintServiceLookup.lookupPrintServices(null, null);
+            PrinterJob.getPrinterJob().getPrintService();
+        } catch (RuntimeException e) {
+            // No print system, e.g. a headless build machine
+        }
+    }
+
+    // A full page with every field, so all fonts and the serial and constant text paths are used
+    private static LabelBatch sampleLabels(PaperConfig config) {
+        LabelBatch labels = new LabelBatch();
+        labels.add(new LabelData("WARMUP{serial:6}", "Business Name", "Sample Product Name 400g", "Rs.1250.00",
+                LabelData.currentPrintedDate(), config.labelsPerPage()));
+        return labels;
+    }
+
+    public static void main(String[] args) throws IOException, PrinterException {
+        if (System.getProperty("java.awt.headless") == null) {
+            System.setProperty("java.awt.headless", "true");
+        }
+        run(PaperConfig.STANDARD, false);
+        for (String format : new String[]{"pdf", "png", "tiff", "zpl"}) {
+            PaperConfig config = PaperConfig.STANDARD[0];
+            LabelOutput.forFormat(format).writeTo(config, sampleLabels(config), OutputStream.nullOutputStream());
+        }
+        // Lightweight Swing components work headless, so the panel can be built without a window
+        try {
+            new PrintBarcodeLabel().createPrintingPanel();
+        } catch (HeadlessException e) {
+            System.err.println("Swing panel not archived: " + e);
+        }
+    }
+}
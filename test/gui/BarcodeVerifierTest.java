@@ -0,0 +1,49 @@
+package gui;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import org.junit.Test;
+
+public class BarcodeVerifierTest {
+
+    // Widest labels of the standard papers; longer barcodes are cut off by the cell
+    private static final PaperConfig PAPER = PaperConfig.find("A4 21up 70mm x 42.4mm");
+    private static final int MAX_LENGTH = 9;
+
+    private static LabelData label(String barcode) {
+        return new LabelData(VariableText.escape(barcode), "Shop", "Product", "1.00", "", 1);
+    }
+
+    @Test
+    public void decodesWhatTheEncoderDrew() throws InterruptedException {
+        Random random = new Random(128);
+        LabelBatch labels = new LabelBatch();
+        labels.add(label(" ~"));
+        for (int i = 0; i < 500; i++) {
+            char[] barcode = new char[1 + random.nextInt(MAX_LENGTH)];
+            for (int c = 0; c < barcode.length; c++) {
+                barcode[c] = (char) (' ' + random.nextInt('~' - ' ' + 1));
+            }
+            labels.add(label(new String(barcode)));
+        }
+
+        BarcodeVerifier.Report report = new BarcodeVerifier(4, 300).verify(PAPER, labels, LabelTemplate.DEFAULT);
+        assertTrue(report.summary(10), report.passed());
+        assertTrue(report.checked > 1);
+    }
+
+    @Test
+    public void flagsBarcodesThatDoNotRoundTrip() throws InterruptedException {
+        LabelBatch labels = new LabelBatch();
+        labels.add(label("CAFÉ"));
+        labels.add(label("OK123"));
+        labels.add(label("0123456789ABCDEFGHIJ"));
+
+        BarcodeVerifier.Report report = new BarcodeVerifier(1, 300).verify(PAPER, labels, LabelTemplate.DEFAULT);
+        assertEquals(3, report.checked);
+        assertEquals(2, report.failures.size());
+        assertEquals("CAFÉ", report.failures.get(0).barcode());
+        assertEquals("0123456789ABCDEFGHIJ", report.failures.get(1).barcode());
+    }
+}
@@ -0,0 +1,45 @@
+package gui;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class Code128EncoderTest {
+
+    private static String bits(Code128Encoder encoder, int count) {
+        StringBuilder out = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            out.append(encoder.modules()[i]);
+        }
+        return out.toString();
+    }
+
+    @Test
+    public void encodesStartDataCheckAndStop() {
+        Code128Encoder encoder = new Code128Encoder();
+        int count = encoder.encode("A");
+        // Start B, 'A' (33), check value (104 + 33) % 103 = 34, stop
+        assertEquals("11010010000" + "10100011000" + "10001011000" + "1100011101011", bits(encoder, count));
+        assertEquals(Code128Encoder.moduleCount(1), count);
+    }
+
+    @Test
+    public void reencodingSharesOnlyTheCommonPrefix() {
+        Code128Encoder reused = new Code128Encoder();
+        reused.encode("ABCDEF");
+        reused.encode("ABC");
+        int count = reused.encode("ABXY");
+
+        Code128Encoder fresh = new Code128Encoder();
+        assertEquals(fresh.encode("ABXY"), count);
+        assertEquals(bits(fresh, count), bits(reused, count));
+    }
+
+    @Test
+    public void mapsCharactersOutsideCodeSetBToSpace() {
+        assertEquals(0, Code128Encoder.symbolValue(' '));
+        assertEquals(94, Code128Encoder.symbolValue('~'));
+        assertEquals(0, Code128Encoder.symbolValue('é'));
+        assertEquals(0, Code128Encoder.symbolValue('\t'));
+    }
+}
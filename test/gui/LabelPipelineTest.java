@@ -0,0 +1,63 @@
+package gui;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LabelPipelineTest {
+
+    private static final String SPECS = String.join("\n",
+            "# header comment",
+            "4006381333931\t7\tSparkling Water 1.5 l\t0.89",
+            "",
+            "SKU-{serial:3:1}\t25\tOrganic Whole Wheat Sourdough Loaf\t3.49",
+            "ABC-123\t1\tTea\t12.00",
+            "9780201633610\t30\tPaperback\t39.95");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static LabelSpecParser parser() {
+        LabelSpecParser parser = new LabelSpecParser();
+        parser.businessName = "Corner Shop";
+        parser.includePrintedDate = false; // --no-date, so both renders show the same text
+        return parser;
+    }
+
+    private static BufferedReader specs() {
+        return new BufferedReader(new StringReader(SPECS));
+    }
+
+    @Test
+    public void writesTheSamePagesAsTheRasterOutput() throws Exception {
+        for (PaperConfig config : new PaperConfig[]{PaperConfig.STANDARD[0], PaperConfig.find("A4 65up 38mm x 21mm")}) {
+            Path expected = folder.newFolder().toPath();
+            Path actual = folder.newFolder().toPath();
+            LabelBatch labels = parser().read(specs());
+            new LabelOutput.PngOutput(expected, 150).write(config, labels);
+
+            LabelPipeline pipeline = new LabelPipeline(2, 3, 4);
+            long count = pipeline.run(parser(), specs(), config, new LabelOutput.PngOutput(actual, 150));
+            assertEquals(labels.size(), count);
+            assertEquals(config.pageCount(labels.size()), pipeline.pageCount());
+
+            String[] pages = expected.toFile().list();
+            Arrays.sort(pages);
+            String[] written = actual.toFile().list();
+            Arrays.sort(written);
+            assertArrayEquals(config.name, pages, written);
+            for (String page : pages) {
+                assertArrayEquals(config.name + " " + page, Files.readAllBytes(expected.resolve(page)),
+                        Files.readAllBytes(actual.resolve(page)));
+            }
+        }
+    }
+}